@@ -0,0 +1,61 @@
+package player;
+
+import scotlandyard.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that the minimax allocates nothing per node once it is warmed up.
+ * A fixed depth search is run from each of the positions of
+ * BenchmarkPositions a few times, so that the JIT has compiled it and the
+ * lazily allocated buffers exist, and then once more while the bytes
+ * allocated by the thread are counted. A search may allocate a little
+ * whatever its size, but less than a byte per node, or the check fails.
+ * To run it:
+ * <pre>
+ *   ant bench-alloc [-Dalloc.depth=depth]
+ * </pre>
+ */
+public class AllocationCheck {
+    public final static int DEFAULT_DEPTH = 6;
+    private final static int WARMUP = 5;
+
+    private AllocationCheck() {
+    }
+
+    /**
+     * Runs the check on every position.
+     *
+     * @param args the depth searched, optional.
+     */
+    public static void main(String[] args) throws IOException {
+        int depth = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_DEPTH;
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        boolean failed = false;
+        for (int position = 0; position < BenchmarkPositions.MRX_LOCATIONS.length; ++position) {
+            Simulator simulator = BenchmarkPositions.simulator(position);
+            int mrXLocation = BenchmarkPositions.MRX_LOCATIONS[position];
+            for (int i = 0; i < WARMUP; ++i) {
+                simulator.getTable().clear();
+                simulator.fixedDepthSearch(Colour.Black, mrXLocation, depth);
+            }
+            simulator.getTable().clear();
+            long before = threads.getThreadAllocatedBytes(thread);
+            simulator.fixedDepthSearch(Colour.Black, mrXLocation, depth);
+            long bytes = threads.getThreadAllocatedBytes(thread) - before;
+            long nodes = simulator.getNodeCount();
+            System.out.printf("Position %d: %d nodes, %d bytes allocated, %.3f bytes per node%n",
+                              position, nodes, bytes, (double) bytes / nodes);
+            if (bytes >= nodes) {
+                failed = true;
+            }
+        }
+        if (failed) {
+            System.out.println("The search allocates memory at every node.");
+            System.exit(1);
+        }
+    }
+}
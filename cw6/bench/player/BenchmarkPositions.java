@@ -0,0 +1,73 @@
+package player;
+
+import scotlandyard.*;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Builds the fixed starting positions used by the benchmarks, so that every
+ * run searches exactly the same game states.
+ */
+public class BenchmarkPositions {
+    /** Mr X's location in each position. */
+    public final static int[] MRX_LOCATIONS = {104, 51, 170};
+    /** The detectives' locations in each position, in playerColours order. */
+    public final static int[][] DETECTIVE_LOCATIONS = {
+        {13, 26, 29, 50, 91},
+        {34, 53, 94, 117, 141},
+        {103, 112, 123, 155, 174}
+    };
+
+    private BenchmarkPositions() {
+    }
+
+    /**
+     * Creates a Simulator set up at one of the fixed positions, at the start
+     * of the game.
+     *
+     * @param position the index of the position.
+     * @return a Simulator ready to be searched from the position.
+     * @throws IOException if the graph or the distance files cannot be read.
+     */
+    public static Simulator simulator(int position) throws IOException {
+        ScotlandYard view = view(position);
+        AIPlayerFactory factory = new AIPlayerFactory();
+        AIPlayer player = (AIPlayer) factory.getPlayer(Colour.Black, view, "graph.txt");
+        Simulator simulator = player.getSimulator();
+        simulator.setLocations();
+        // The minimax moves Mr X to the location it searches from, so a
+        // one level search puts him in place for the other benchmarks.
+        simulator.fixedDepthSearch(Colour.Black, MRX_LOCATIONS[position], 1);
+        simulator.getTable().clear();
+        return simulator;
+    }
+
+    /**
+     * Creates a game at one of the fixed positions, at the start of the game.
+     *
+     * @param position the index of the position.
+     * @return the game, with every player joined.
+     * @throws IOException if the graph cannot be read.
+     */
+    public static ScotlandYard view(int position) throws IOException {
+        ScotlandYardGraph graph = new ScotlandYardGraphReader().readGraph("graph.txt");
+        ScotlandYard view = new ScotlandYard(5, OpeningBookBuilder.rounds(), graph, new ScotlandYardMapQueue<Integer, Token>(), 0);
+        Colour[] colours = Colour.values();
+        view.join(new IdlePlayer(), Colour.Black, MRX_LOCATIONS[position], OpeningBookBuilder.tickets(Colour.Black));
+        for (int i = 1; i < 6; ++i) {
+            view.join(new IdlePlayer(), colours[i], DETECTIVE_LOCATIONS[position][i - 1],
+                      OpeningBookBuilder.tickets(colours[i]));
+        }
+        return view;
+    }
+
+    /**
+     * A player that is never asked to move, used to fill the seats of the view.
+     */
+    private static class IdlePlayer implements Player {
+        @Override
+        public void notify(int location, List<Move> moves, Integer token, Receiver receiver) {
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package player;
+
+import scotlandyard.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks encoding and decoding moves, both between ints and Move
+ * objects and between the fields of an encoded move. The fields are also
+ * decoded from the decimal encoding the search used before MoveCodec,
+ * colour * 10000 + ticket * 1000 + destination with each half of a double
+ * move taking five digits, as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveCodecBenchmark {
+    private MoveTicket single;
+    private MoveDouble twice;
+    private int singleMove;
+    private int doubleMove;
+    private int decimalDoubleMove;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        single = MoveTicket.instance(Colour.Black, Ticket.Bus, 42);
+        twice = MoveDouble.instance(Colour.Black, single, MoveTicket.instance(Colour.Black, Ticket.Secret, 72));
+        singleMove = MoveCodec.fromMove(single);
+        doubleMove = MoveCodec.fromMove(twice);
+        decimalDoubleMove = 100000 * (10000 + 2000 + 42) + (10000 + 4000 + 72);
+    }
+
+    @Benchmark
+    public int encodeSingle() {
+        return MoveCodec.fromMove(single);
+    }
+
+    @Benchmark
+    public int encodeDouble() {
+        return MoveCodec.fromMove(twice);
+    }
+
+    @Benchmark
+    public Move decodeSingle() {
+        return MoveCodec.toMove(singleMove);
+    }
+
+    @Benchmark
+    public Move decodeDouble() {
+        return MoveCodec.toMove(doubleMove);
+    }
+
+    @Benchmark
+    public void decodeFields(Blackhole blackhole) {
+        int second = MoveCodec.second(doubleMove);
+        blackhole.consume(MoveCodec.colour(second));
+        blackhole.consume(MoveCodec.ticket(second));
+        blackhole.consume(MoveCodec.destination(second));
+    }
+
+    @Benchmark
+    public void decodeFieldsDecimal(Blackhole blackhole) {
+        int second = decimalDoubleMove - (decimalDoubleMove / 100000) * 100000;
+        int colour = second / 10000;
+        int ticket = (second - colour * 10000) / 1000;
+        blackhole.consume(colour - 1);
+        blackhole.consume(ticket - 1);
+        blackhole.consume(second - (second / 1000) * 1000);
+    }
+}
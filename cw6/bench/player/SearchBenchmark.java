@@ -0,0 +1,46 @@
+package player;
+
+import scotlandyard.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks a full minimax search from the fixed positions of
+ * BenchmarkPositions. The transposition table is emptied before each call,
+ * so that every call searches the same tree.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 10, batchSize = 1)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"0", "1", "2"})
+    public int position;
+
+    @Param({"4", "6"})
+    public int depth;
+
+    private Simulator simulator;
+    private int mrXLocation;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        simulator = BenchmarkPositions.simulator(position);
+        mrXLocation = BenchmarkPositions.MRX_LOCATIONS[position];
+    }
+
+    @Setup(Level.Invocation)
+    public void clearTable() {
+        simulator.getTable().clear();
+    }
+
+    @Benchmark
+    public int minimax() {
+        return simulator.fixedDepthSearch(Colour.Black, mrXLocation, depth);
+    }
+}
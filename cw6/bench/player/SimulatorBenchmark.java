@@ -0,0 +1,71 @@
+package player;
+
+import scotlandyard.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the move generation, belief update and evaluation of the
+ * Simulator from the fixed positions of BenchmarkPositions. Run with:
+ * <pre>
+ *   ant bench
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulatorBenchmark {
+    @Param({"0", "1", "2"})
+    public int position;
+
+    private Simulator simulator;
+    private int mrXLocation;
+    private BeliefSet beliefs;
+    private BeliefSet scratch;
+    private int mrXMove;
+    private int detectiveMove;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        simulator = BenchmarkPositions.simulator(position);
+        mrXLocation = BenchmarkPositions.MRX_LOCATIONS[position];
+        beliefs = new BeliefSet();
+        for (int location = 1; location < 200; location += 3) {
+            beliefs.add(location);
+        }
+        scratch = new BeliefSet();
+        mrXMove = simulator.encodeMove(MoveTicket.instance(Colour.Black, Ticket.Taxi, mrXLocation));
+        detectiveMove = simulator.encodeMove(MoveTicket.instance(Colour.Blue, Ticket.Taxi,
+                                             BenchmarkPositions.DETECTIVE_LOCATIONS[position][0]));
+    }
+
+    @Benchmark
+    public void validMoves() {
+        simulator.validMoves(Colour.Black, 0, true, 0, mrXLocation, beliefs);
+    }
+
+    @Benchmark
+    public BeliefSet updatePossibleLocationsMrX() {
+        scratch.copyFrom(beliefs);
+        simulator.updatePossibleLocations(mrXMove, scratch);
+        return scratch;
+    }
+
+    @Benchmark
+    public BeliefSet updatePossibleLocationsDetective() {
+        scratch.copyFrom(beliefs);
+        simulator.updatePossibleLocations(detectiveMove, scratch);
+        return scratch;
+    }
+
+    @Benchmark
+    public int getDetectiveScore() {
+        return simulator.getDetectiveScore(beliefs);
+    }
+}
@@ -0,0 +1,55 @@
+package player;
+
+import scotlandyard.*;
+
+import java.io.IOException;
+
+/**
+ * Checks that the probabilities of Mr X's possible locations still add up
+ * to 1 after the simulator receives his hidden moves. From the start of one
+ * of the positions of BenchmarkPositions, Mr X makes a single move and, in
+ * another game, a double move, neither of them revealed, and the weights
+ * left over his possible locations are summed. To run it:
+ * <pre>
+ *   ant bench-weights
+ * </pre>
+ */
+public class WeightsCheck {
+    private final static int POSITION = 1;
+    private final static double TOLERANCE = 1e-9;
+
+    private WeightsCheck() {
+    }
+
+    /**
+     * Runs the check on a single and a double move.
+     *
+     * @param args unused.
+     */
+    public static void main(String[] args) throws IOException {
+        boolean failed = false;
+        Move[] moves = {
+            MoveTicket.instance(Colour.Black, Ticket.Taxi, 38),
+            MoveDouble.instance(Colour.Black, Ticket.Taxi, 38, Ticket.Taxi, 24)
+        };
+        for (Move move : moves) {
+            Simulator simulator = BenchmarkPositions.simulator(POSITION);
+            simulator.receiveMove(move);
+            double mass = 0;
+            int nodes = 0;
+            for (double weight : simulator.getMrXWeights()) {
+                mass += weight;
+                if (weight > 0)
+                    ++nodes;
+            }
+            System.out.printf("%s: mass %.6f over %d nodes%n", move, mass, nodes);
+            if (Math.abs(mass - 1) > TOLERANCE) {
+                failed = true;
+            }
+        }
+        if (failed) {
+            System.out.println("A hidden move of Mr X loses the weights of his locations.");
+            System.exit(1);
+        }
+    }
+}
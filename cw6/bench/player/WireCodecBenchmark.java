@@ -0,0 +1,78 @@
+package player;
+
+import scotlandyard.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks encoding and decoding the NOTIFY_TURN of Mr X at the start of
+ * a game, with all of his double moves, both as JSON and as a binary frame
+ * of WireCodec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireCodecBenchmark {
+    private final static int GAME_ID = 42;
+    private final static int TOKEN = 123456;
+
+    private List<Move> moves;
+    private int location;
+    private String json;
+    private byte[] frame;
+    private WireCodec.Message message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        moves = BenchmarkPositions.view(0).validMoves(Colour.Black);
+        location = BenchmarkPositions.MRX_LOCATIONS[0];
+        json = encodeJson();
+        frame = encodeBinary();
+        message = new WireCodec.Message();
+    }
+
+    @Benchmark
+    public String encodeJson() {
+        List<Object> validMoves = new ArrayList<Object>();
+        for (Move move : moves) {
+            Map<String, Object> validMove = new LinkedHashMap<String, Object>();
+            validMove.put("move", JsonCodec.encodeMove(move));
+            validMove.put("move_type", move.getClass().getSimpleName());
+            validMoves.add(validMove);
+        }
+        Map<String, Object> notifyTurn = new LinkedHashMap<String, Object>();
+        notifyTurn.put("type", "NOTIFY_TURN");
+        notifyTurn.put("game_id", GAME_ID);
+        notifyTurn.put("location", location);
+        notifyTurn.put("timestamp", 0L);
+        notifyTurn.put("token", TOKEN);
+        notifyTurn.put("valid_moves", validMoves);
+        return JsonCodec.encode(notifyTurn);
+    }
+
+    @Benchmark
+    public Object decodeJson() {
+        return JsonCodec.decode(json);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        int[] encoded = new int[moves.size()];
+        for (int i = 0; i < encoded.length; ++i) {
+            encoded[i] = MoveCodec.fromMove(moves.get(i));
+        }
+        return WireCodec.encodeNotifyTurn(GAME_ID, TOKEN, location, 0L, encoded, encoded.length);
+    }
+
+    @Benchmark
+    public WireCodec.Message decodeBinary() {
+        return WireCodec.decode(frame, message);
+    }
+}
@@ -2,6 +2,8 @@ import ai.*;
 import net.*;
 import player.*;
 
+import java.io.IOException;
+
 /**
  * The AIService uses your AI to play a game of scotlandyard. Your AI can be
  * asked to play as any player (Detective or Mr X), so make sure it works for
@@ -13,22 +15,64 @@ import player.*;
  * </pre>
  * or,
  * <pre>
- *   ant ai-with -Dargs="clientPort"
+ *   ant ai-with -Dargs="clientPort [engine] [ponder] [telemetry] [status] [binary]"
  * </pre>
  * where clientPort is the port with which to bind the server that the
- * JavaScript GUIs connect to.
+ * JavaScript GUIs connect to, engine is either minimax (the default)
+ * or mcts, ponder makes the AI search during its opponents' turns,
+ * telemetry logs the search counters after every move and publishes
+ * them over JMX, and status serves the latencies of the turns of every
+ * game over HTTP on localhost, at port clientPort + 1. With binary, the
+ * games are served by an AIWebSocketServer, which plays in the binary
+ * encoding of WireCodec with clients that offer it, such as the
+ * LoadGenerator, and in JSON with the browser.
+ *
+ * The service can play many games at once. The tables of the map and the
+ * threads that search are shared by every game, while each game gets its
+ * own players and search state. At most one move per processor is searched
+ * at a time, earliest deadline first, and a move that waits too long is
+ * found by a shallower search rather than sent late.
  */
 
 public class AIService {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         int port = Integer.parseInt(args[0]);
 
         System.out.println("Welcome! AI service started on localhost:" + port);
 
         //TODO: Replace this player factory with your own AI.
-        PlayerFactory factory = new AIPlayerFactory();
+        int engine = AIPlayer.MINIMAX;
+        boolean ponder = false;
+        boolean telemetry = false;
+        boolean status = false;
+        boolean binary = false;
+        for (int i = 1; i < args.length; ++i) {
+            if (args[i].equals("mcts")) {
+                engine = AIPlayer.MONTE_CARLO;
+            } else if (args[i].equals("ponder")) {
+                ponder = true;
+            } else if (args[i].equals("telemetry")) {
+                telemetry = true;
+            } else if (args[i].equals("status")) {
+                status = true;
+            } else if (args[i].equals("binary")) {
+                binary = true;
+            }
+        }
+        AIPlayerFactory factory = new AIPlayerFactory(engine);
+        factory.setPonder(ponder);
+        factory.setTelemetry(telemetry);
+        factory.setScheduler(new MoveScheduler(Runtime.getRuntime().availableProcessors()));
+        if (status) {
+            new StatusServer(port + 1, factory);
+            System.out.println("Status served on localhost:" + (port + 1));
+        }
 
+        if (binary) {
+            new AIWebSocketServer(port, "graph.txt", factory).run();
+            return;
+        }
         MessengerServer<Integer> server = new Server(port);
         AIServer client = new AIServer(server, "graph.txt", factory);
         client.run();
@@ -3,7 +3,7 @@ package player;
 import scotlandyard.*;
 
 import java.util.*;
-import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The AIPlayer is a means of communication between the server and the Simulator,
@@ -17,6 +17,29 @@ public class AIPlayer implements Player, Spectator {
 	private int currentRound;
     private Simulator simulator;
     private Colour player;
+    private long moveTime;
+    private ForkJoinPool pool;
+    private boolean ownsPool;
+    private int engine;
+    private long playouts;
+    private MonteCarloSearch monteCarlo;
+    private OpeningBook book;
+    private EndgameSolver solver;
+    private Ponderer ponderer;
+    private MoveScheduler scheduler;
+    private TurnLatency latency;
+    private long turnStart;
+    private long searchStart;
+    private long syncNanos;
+    private int location;
+    private SearchTelemetry telemetry;
+    private SearchStatistics statistics;
+
+    public final static long DEFAULT_MOVE_TIME = 8000;
+    /** Search for moves with the iterative deepening minimax. */
+    public final static int MINIMAX = 0;
+    /** Search for moves with the Monte Carlo Tree Search. */
+    public final static int MONTE_CARLO = 1;
 
     /**
      * Constructs a new AIPlayer object which implements the Player and Spectator.
@@ -25,72 +48,350 @@ public class AIPlayer implements Player, Spectator {
      * @param view the ScotlandYardView that provides game information.
      * @param graphFilename the name of the file containing the graph components.
      * @param player the colour of this AI player
-     * @param distances two dimensional array containing distances from each node to every other node on the graph.
-     * @param generatedMoves two dimensional array storing generated moves at each level of the minimax.
-     * @param onlyTaxiLinks an array indexed by graph nodes containing 1 if the node has just taxi links and 0 otherwise.
+     * @param tables the precomputed distances, moves and taxi-only nodes of the map.
      */
     public AIPlayer(ScotlandYardView view,
                     String graphFilename,
                     Colour player,
-                    int distances[][],
-                    int generatedMoves[][],
-                    int onlyTaxiLinks[]) {
+                    PrecomputedTables tables) {
 		this.view = view;
 		this.players = view.getPlayers();
 		this.rounds = view.getRounds();
 		this.currentRound = view.getRound();
-        ScotlandYardGraph graph = makeGraph(graphFilename);
+        GameMap map = GameMap.getShared(graphFilename);
         MapQueue<Integer,Token> queue = new ScotlandYardMapQueue<Integer,Token>();
-        simulator = new Simulator(5, this.rounds, graph, queue, 42);
-        simulator.setSimulator(view, graphFilename, distances, generatedMoves, onlyTaxiLinks);
+        simulator = new Simulator(5, this.rounds, map.getGraph(), queue, 42);
+        simulator.setSimulator(view, graphFilename, tables);
         this.player = player;
+        this.moveTime = DEFAULT_MOVE_TIME;
+        this.engine = MINIMAX;
+        this.monteCarlo = new MonteCarloSearch(simulator);
+        this.solver = new EndgameSolver(simulator, map);
+        this.latency = new TurnLatency();
     }
 
     /**
-     * Initialises the simulator.
+     * Sets the time budget for each move.
      *
-     * @param graphFilename the name of the file containing the graph components.
-     * @return a ScotlandYardGraph generated from a local file.
+     * @param moveTime the number of milliseconds the search may take per move.
+     */
+    public void setMoveTime(long moveTime) {
+        this.moveTime = moveTime;
+    }
+
+    /**
+     * Sets the search engine used to find moves.
+     *
+     * @param engine MINIMAX or MONTE_CARLO.
      */
-    private ScotlandYardGraph makeGraph(String graphFilename) {
-        ScotlandYardGraphReader graphRead = new ScotlandYardGraphReader();
-        ScotlandYardGraph graph = new ScotlandYardGraph();
-        try {
-            graph = graphRead.readGraph(graphFilename);
-        } catch(IOException e) {
-            System.out.println("Error creating ScotlandYardGraph from file.");
+    public void setEngine(int engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Sets whether the player searches while the detectives are moving. The
+     * positions searched are kept in the transposition table for the search
+     * of Mr X's next move.
+     *
+     * @param ponder true to search during the detectives' turns.
+     */
+    public void setPonder(boolean ponder) {
+        if (ponder && ponderer == null) {
+            ponderer = new Ponderer(simulator);
+            ponderer.setScheduler(scheduler);
+        } else if (!ponder && ponderer != null) {
+            ponderer.stop();
+            ponderer = null;
+        }
+    }
+
+    /**
+     * Sets where the counters of the minimax are added up. With telemetry
+     * set, a summary of the search is logged after each move.
+     *
+     * @param telemetry the telemetry the counters are added to, or null not
+     *                  to count.
+     */
+    public void setTelemetry(SearchTelemetry telemetry) {
+        this.telemetry = telemetry;
+        this.statistics = (telemetry == null) ? null : new SearchStatistics(Simulator.MAX_DEPTH + 1);
+        simulator.setStatistics(statistics);
+    }
+
+    /**
+     * Sets the opening book consulted before searching.
+     *
+     * @param book the opening book, or null to always search.
+     */
+    public void setBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * Sets the number of playouts the Monte Carlo search runs for each move.
+     * The search still stops at the deadline if it has not run them all.
+     *
+     * @param playouts the number of playouts, or 0 to run until the deadline.
+     */
+    public void setPlayouts(long playouts) {
+        this.playouts = playouts;
+    }
+
+    /**
+     * Sets the number of threads used to search. With more than one thread
+     * the moves at the root are split between the threads of a ForkJoinPool.
+     * Until this or setPool() is called, the player searches on the thread
+     * that is notified.
+     *
+     * @param threads the number of threads used to search.
+     */
+    public void setThreads(int threads) {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+        if (threads > 1) {
+            pool = new ForkJoinPool(threads);
+            ownsPool = true;
+        } else {
+            pool = null;
+            ownsPool = false;
+        }
+    }
+
+    /**
+     * Sets a pool, shared with other players, whose threads search for this
+     * player's moves. The pool is not shut down by this player.
+     *
+     * @param pool the pool used to search, or null to search on the thread
+     *             that is notified.
+     */
+    public void setPool(ForkJoinPool pool) {
+        if (ownsPool) {
+            this.pool.shutdown();
+        }
+        this.pool = pool;
+        this.ownsPool = false;
+    }
+
+    /**
+     * Stops searching during the detectives' turns and shuts down the pool
+     * of this player, once its game is over. Neither the minimax nor the
+     * Monte Carlo search keeps worker copies of the simulator between
+     * turns, so there are none left to release.
+     */
+    public void close() {
+        setPonder(false);
+        setThreads(1);
+    }
+
+    /**
+     * Returns the simulator used to search for moves.
+     *
+     * @return the simulator of this player.
+     */
+    Simulator getSimulator() {
+        return simulator;
+    }
+
+    /**
+     * Sets the scheduler the searches of this player wait their turn in,
+     * and in the background of which it ponders.
+     *
+     * @param scheduler the scheduler, or null to search on the thread that
+     *                  is notified.
+     */
+    public void setScheduler(MoveScheduler scheduler) {
+        this.scheduler = scheduler;
+        if (ponderer != null) {
+            ponderer.setScheduler(scheduler);
         }
-        return graph;
     }
 
     /**
      * Used to call the minimax to get the best move and then send it to the server.
+     * The judge timestamps the token just before we are notified, so the
+     * deadline of the search is counted from the moment notify is called,
+     * even if the search then waits in the scheduler.
      */
     @Override
     public void notify(int location, List<Move> moves, Integer token, Receiver receiver) {
+        turnStart = System.nanoTime();
+        long deadline = System.currentTimeMillis() + moveTime;
+        if (scheduler != null) {
+            scheduler.schedule(this, location, moves, token, receiver, deadline);
+        } else {
+            play(location, moves, token, receiver, deadline);
+        }
+    }
+
+    /**
+     * Finds a move and sends it to the server. If the deadline has already
+     * passed, the move of the shallowest search is sent.
+     *
+     * @param location the location of Mr X.
+     * @param moves the valid moves of Mr X.
+     * @param token the token of the current turn.
+     * @param receiver the receiver the move is sent to.
+     * @param deadline the time, in milliseconds, by which the move must be sent.
+     */
+    void play(int location, List<Move> moves, Integer token, Receiver receiver, long deadline) {
+        long pondered = 0;
+        if (ponderer != null) {
+            ponderer.stop();
+            pondered = ponderer.getNodeCount();
+            ponderer.resetNodeCount();
+        }
         if (view.getRound() == 0) {
+            long syncStart = System.nanoTime();
             simulator.setLocations();
+            syncNanos += System.nanoTime() - syncStart;
+        }
+        searchStart = System.nanoTime();
+        int move = lookupBook(location, moves);
+        if (move != OpeningBook.NOT_FOUND) {
+            Move bookMove = simulator.decodeMove(move);
+            System.out.println("Found " + bookMove + " in the opening book");
+            sendMove(move, token, receiver);
+            return;
+        }
+        // The solver gets half the time left, the search the rest if it finds no win.
+        long now = System.currentTimeMillis();
+        move = solver.solve(location, now + Math.max(deadline - now, 0) / 2);
+        if (move != EndgameSolver.NOT_SOLVED) {
+            Move winningMove = simulator.decodeMove(move);
+            System.out.println("Solved the end of the game in " + solver.getNodeCount()
+                               + " positions, playing " + winningMove);
+            sendMove(move, token, receiver);
+            return;
+        }
+        if (solver.isLost()) {
+            System.out.println("The end of the game is lost against detectives who can see Mr X.");
+        }
+        // After pondering, the table already holds this turn's search.
+        if (pondered == 0) {
+            simulator.getTable().newSearch();
+        }
+        long start = System.nanoTime();
+        if (statistics != null) {
+            statistics.reset();
+        }
+        if (engine == MONTE_CARLO) {
+            move = monteCarlo.search(pool, location, deadline, playouts);
+        } else if (pool != null) {
+            move = simulator.parallelIterativeDeepening(pool, location, deadline);
+        } else {
+            move = simulator.iterativeDeepening(Colour.Black, location, deadline);
+        }
+        if (move == MoveCodec.NO_MOVE) {
+            // The search found nothing to play, so any valid move will do.
+            move = MoveCodec.fromMove(moves.get(0));
         }
-        int[] currentConfigurationScore = new int[1];
-        currentConfigurationScore[0] = 0;
-        int level = 0;
-        int bestScore = 0;
-        /* We set these values because the first ply is a special case where
-         * you should NOT be allowed to prune. Therefore, you can only prune
-         * after this first ply.
-         */
-        if (player == Colour.Black)
-            bestScore = Integer.MAX_VALUE;
-        else
-            bestScore = Integer.MIN_VALUE;
-        int move = simulator.minimax(Colour.Black, location, level, currentConfigurationScore, bestScore, simulator.mrXPossibleLocations);
         Move bestMove = simulator.decodeMove(move);
-        receiver.playMove(bestMove, token);
+        if (engine == MONTE_CARLO) {
+            System.out.println("Ran " + monteCarlo.getPlayoutCount() + " playouts, playing " + bestMove);
+        } else {
+            System.out.println("Searched " + simulator.getNodeCount() + " nodes to depth "
+                               + simulator.getLastDepth() + ", playing " + bestMove);
+            if (telemetry != null) {
+                System.out.println("Telemetry: " + telemetry.record(statistics, System.nanoTime() - start));
+            }
+        }
+        if (pondered > 0) {
+            System.out.println("Searched " + pondered + " nodes while pondering.");
+        }
+        sendMove(move, token, receiver);
+    }
+
+    /**
+     * Sends a move to the server, remembering where it takes Mr X. The
+     * other players only see his location in the reveal rounds, so the
+     * moves passed to notify(Move) do not always show it. The latencies
+     * of the turn are counted just before the move is handed over.
+     *
+     * @param move the encoded move.
+     * @param token the token of the current turn.
+     * @param receiver the receiver the move is sent to.
+     */
+    private void sendMove(int move, Integer token, Receiver receiver) {
+        location = MoveCodec.destination(MoveCodec.isDouble(move) ? MoveCodec.second(move) : move);
+        long decodeStart = System.nanoTime();
+        Move decoded = simulator.decodeMove(move);
+        long end = System.nanoTime();
+        latency.record(end - turnStart, syncNanos, decodeStart - searchStart, end - decodeStart);
+        syncNanos = 0;
+        receiver.playMove(decoded, token);
+    }
+
+    /**
+     * Returns the latencies of the turns this player has played.
+     *
+     * @return the latencies of this player's game.
+     */
+    public TurnLatency getLatency() {
+        return latency;
+    }
+
+    /**
+     * Looks up the current position in the opening book.
+     *
+     * @param location the location of Mr X.
+     * @param moves the valid moves of Mr X.
+     * @return the encoded book move, or OpeningBook.NOT_FOUND if the position is
+     * not in the book or the book move is not valid.
+     */
+    private int lookupBook(int location, List<Move> moves) {
+        if (book == null)
+            return OpeningBook.NOT_FOUND;
+        List<Colour> colours = view.getPlayers();
+        int[] detectives = new int[colours.size() - 1];
+        int i = 0;
+        for (Colour colour : colours) {
+            if (colour != Colour.Black) {
+                detectives[i++] = view.getPlayerLocation(colour);
+            }
+        }
+        int move = book.lookup(OpeningBook.key(view.getRound(), location, detectives));
+        if (move == OpeningBook.NOT_FOUND)
+            return move;
+        for (Move m : moves) {
+            if (simulator.encodeMove(m) == move)
+                return move;
+        }
+        return OpeningBook.NOT_FOUND;
     }
 
+    /**
+     * Plays a move made in the game on the simulator. While pondering, the
+     * search of the previous position is stopped first, and a new one is
+     * started from the position after the move if a detective is to move.
+     * Mr X's own move starts a new generation of the table, which the
+     * pondering and the search of his next move then share.
+     */
     @Override
     public void notify(Move move) {
+        if (ponderer == null) {
+            receiveMove(move);
+            return;
+        }
+        ponderer.stop();
+        receiveMove(move);
+        if (move.colour == Colour.Black) {
+            simulator.getTable().newSearch();
+        }
+        List<Colour> colours = view.getPlayers();
+        ponderer.start(colours.get((colours.indexOf(move.colour) + 1) % colours.size()), location);
+    }
+
+    /**
+     * Plays a move made in the game on the simulator, counting the time
+     * towards the sync of the next turn.
+     *
+     * @param move the move made.
+     */
+    private void receiveMove(Move move) {
+        long start = System.nanoTime();
         simulator.receiveMove(move);
+        syncNanos += System.nanoTime() - start;
     }
 
 }
@@ -2,38 +2,35 @@ package player;
 
 import net.*;
 import scotlandyard.*;
-import graph.*;
 
-import java.io.InputStream;
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
-import java.io.PrintWriter;
-import java.io.File;
-import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The RandomPlayerFactory is an example of a PlayerFactory that
  * gives the AI server your AI implementation. You can also put any
  * code that you want to run before and after a game in the methods
  * provided here.
+ * <p>
+ * A single factory serves every game the AI server plays at once. The
+ * precomputed tables, the GameMap and the opening book depend only on the
+ * map, so they are loaded once and shared by all of them, as is the pool
+ * whose threads search. Each game gets its own players, and so its own
+ * simulators and transposition tables, kept under the view of the game
+ * until the game is over.
  */
 public class AIPlayerFactory implements PlayerFactory {
 
-    private List<Spectator> spectators = new ArrayList<Spectator>();
-    private ScotlandYardGraph graph;
-    private int distances[][];
-    private int generatedMoves[][];
-    private int onlyTaxiLinks[];
+    private Map<ScotlandYardView, Game> games = new LinkedHashMap<ScotlandYardView, Game>();
+    private int gameCount;
+    private TurnLatency finished = new TurnLatency();
+    private ForkJoinPool pool;
+    private MoveScheduler scheduler;
+    private int engine;
+    private OpeningBook book;
+    private boolean ponder;
+    private SearchTelemetry telemetry;
 
-    private final static Colour[] playerColours = {
-        Colour.Black,
-        Colour.Blue,
-        Colour.Green,
-        Colour.Red,
-        Colour.White,
-        Colour.Yellow
-    };
     public final static Ticket[] ticketType = {
         Ticket.Taxi,
         Ticket.Bus,
@@ -43,7 +40,67 @@ public class AIPlayerFactory implements PlayerFactory {
     };
 
     /**
-     * Returns an AIPlayer for Mr. X and adds it to the list of spectators.
+     * Constructs a new AIPlayerFactory whose players search with the minimax.
+     */
+    public AIPlayerFactory() {
+        this(AIPlayer.MINIMAX);
+    }
+
+    /**
+     * Constructs a new AIPlayerFactory whose players search with a given engine.
+     * If an opening book has been built, the players play from it while they can.
+     *
+     * @param engine AIPlayer.MINIMAX or AIPlayer.MONTE_CARLO.
+     */
+    public AIPlayerFactory(int engine) {
+        this.engine = engine;
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+        this.book = OpeningBook.load(OpeningBook.BOOK_FILENAME);
+        if (book != null) {
+            System.out.println("Loaded an opening book of " + book.size() + " positions.");
+        }
+    }
+
+    /**
+     * Sets whether the players search while the detectives are moving.
+     *
+     * @param ponder true to search during the detectives' turns.
+     */
+    public void setPonder(boolean ponder) {
+        this.ponder = ponder;
+    }
+
+    /**
+     * Sets the scheduler the players' searches wait their turn in, so that
+     * the games served at once search a few moves at a time, earliest
+     * deadline first.
+     *
+     * @param scheduler the scheduler, or null to search on the threads that
+     *                  notify the players.
+     */
+    public void setScheduler(MoveScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Sets whether the players count what their searches do. The totals are
+     * published over JMX and each player logs a summary of every search.
+     *
+     * @param enabled true to count and false to search without counting.
+     */
+    public void setTelemetry(boolean enabled) {
+        if (enabled && telemetry == null) {
+            telemetry = new SearchTelemetry();
+            telemetry.register();
+        } else if (!enabled) {
+            telemetry = null;
+        }
+    }
+
+    /**
+     * Returns an AIPlayer for Mr. X and adds it to the spectators of its game.
+     * Games that are over are released first.
      *
      * @param colour the colour of the AIPlayer to be instantiated.
      * @param view the ScotlandYardView that provides game information.
@@ -51,75 +108,27 @@ public class AIPlayerFactory implements PlayerFactory {
      * @return an AIPlayer.
      */
     @Override
-    public Player getPlayer(Colour colour, ScotlandYardView view, String mapFilename) {
-        onlyTaxiLinks = new int[200];
-        distances = new int[201][201];
-        generatedMoves = new int[201][501];
-        ready();
-        gettingTaxiLinks();
+    public synchronized Player getPlayer(Colour colour, ScotlandYardView view, String mapFilename) {
+        releaseFinishedGames();
+        PrecomputedTables tables = PrecomputedTables.getShared(mapFilename);
         System.out.println("Creating " + colour + " intelligent player.\n");
-        AIPlayer aiPlayer = new AIPlayer(view, mapFilename, colour, distances, generatedMoves, onlyTaxiLinks);
-        addSpectator(aiPlayer);
+        AIPlayer aiPlayer = new AIPlayer(view, mapFilename, colour, tables);
+        aiPlayer.setEngine(engine);
+        aiPlayer.setBook(book);
+        aiPlayer.setPonder(ponder);
+        aiPlayer.setTelemetry(telemetry);
+        aiPlayer.setPool(pool);
+        aiPlayer.setScheduler(scheduler);
+        addSpectator(view, aiPlayer);
         return aiPlayer;
     }
-    /*
-     * Parses the InputStream and returns an int
-     *
-     * @param in an InputStream
-     * @return a parsed int
-     */
-    private static int readInt(InputStream in) throws IOException {
-        int result = 0;
-        boolean flagDigit = false;
-        int c;
-        while ((c = in.read()) != -1) {
-            if ('0' <= c && c <= '9') {
-                flagDigit = true;
-                result = result * 10 + (c - '0');
-            } else {
-                if (flagDigit)
-                    break;
-            }
-        }
-
-        return result;
-    }
 
     /*
-     * Used to read the precomputed distances and generated moves.
+     * The precomputed tables are loaded once, by the first call to getPlayer,
+     * and shared by every game after that, so there is nothing to do here.
      */
     @Override
     public void ready() {
-        String graphFilename = "graph.txt";
-        File file = new File("lookup-node-distances.txt");
-        try {
-            BufferedInputStream bis = new BufferedInputStream(new FileInputStream("lookup-node-distances.txt"));
-            for (int source = 1; source < 200; ++source) {
-                for (int destination = 1; destination < 200; ++destination) {
-                    distances[source][destination] = readInt(bis);/* reader.nextInt(); */
-                }
-            }
-        } catch (IOException e) {
-            try {
-                Thread.sleep(3000);
-            } catch(InterruptedException ex) {
-                Thread.currentThread().interrupt();
-            }
-            System.out.println("Error:\nError creating Scanner.");
-        }
-        file = new File("generated-moves.txt");
-        try {
-            PrintWriter writer = new PrintWriter(file, "UTF-8");
-            this.graph = makeGraph(graphFilename);
-            generateMoves();
-        } catch (IOException e) {
-            try {
-                Thread.sleep(3000);
-            } catch(InterruptedException ex) {
-                Thread.currentThread().interrupt();
-            }
-            System.out.println("\nError caught while creating PrintWriter");
-        }
     }
 
     /**
@@ -135,135 +144,106 @@ public class AIPlayerFactory implements PlayerFactory {
     }
 
     /**
-     * Initialises the simulator.
-     *
-     * @param graphFilename the name of the file containing the graph components.
-     * @return a ScotlandYardGraph generated from a local file.
-     */
-    private ScotlandYardGraph makeGraph(String graphFilename) {
-        ScotlandYardGraphReader graphRead = new ScotlandYardGraphReader();
-        ScotlandYardGraph graph = new ScotlandYardGraph();
-        try {
-            graph = graphRead.readGraph(graphFilename);
-        } catch(IOException e) {
-            System.out.println("Error creating ScotlandYardGraph from file.");
+    * Adds a spectator to the spectators of a game.
+    *
+    * @param view the view of the game.
+    * @param aiPlayer Spectator to be added.
+    */
+    private void addSpectator(ScotlandYardView view, Spectator aiPlayer) {
+        Game game = games.get(view);
+        if (game == null) {
+            game = new Game(++gameCount);
+            games.put(view, game);
         }
-        return graph;
+        game.spectators.add(aiPlayer);
     }
 
     /**
-     * Generates all the moves for all positions on the map and stores them in
-     * a two-dimensional array.
-     *
+     * Forgets the games that are over, stopping their players so that
+     * nothing keeps their simulators alive. The latencies of each game are
+     * printed and added to those of the games finished before.
      */
-    private void generateMoves() {
-        for (int location = 1; location < 200; ++location) {
-            generatedMoves[location][0] = 0;
-            int player = encodeColour(Colour.Black);
-            int normalTicket;
-            int secretTicket = encodeTicket(Ticket.Secret);
-            int normalMove;
-            int secretMove;
-            Node<Integer> nodeLocation = graph.getNode(location);
-            for (Edge<Integer, Transport> e : graph.getEdgesFrom(nodeLocation)) {
-               normalTicket = encodeTicket(Ticket.fromTransport(e.getData()));
-               normalMove = player + normalTicket + e.getTarget().getIndex();
-               addElementToArray(generatedMoves[location], normalMove);
-        	   secretMove = player + secretTicket + e.getTarget().getIndex();
-        	   addElementToArray(generatedMoves[location], secretMove);
-        	   generateDoubleMoves(player, e, normalMove, generatedMoves[location]);
-        	   generateDoubleMoves(player, e, secretMove, generatedMoves[location]);
+    private void releaseFinishedGames() {
+        Iterator<Map.Entry<ScotlandYardView, Game>> it = games.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ScotlandYardView, Game> entry = it.next();
+            if (!entry.getKey().isGameOver())
+                continue;
+            Game game = entry.getValue();
+            for (Spectator spectator : game.spectators) {
+                if (spectator instanceof AIPlayer) {
+                    AIPlayer aiPlayer = (AIPlayer) spectator;
+                    aiPlayer.close();
+                    System.out.println("Game " + game.id + " latency: " + aiPlayer.getLatency().summary());
+                    finished.add(aiPlayer.getLatency());
+                }
             }
+            it.remove();
         }
     }
 
     /**
-     * Updates the onlyTaxiLinks array with 1 if a certain node location contains
-     * only taxi links, with 0 otherwise.
+     * Returns the latencies of the turns of every game being played, one
+     * line per game, and of all the finished games together.
+     *
+     * @return the status, as lines of text.
      */
-    private void gettingTaxiLinks() {
-        for (Node<Integer> n : graph.getNodes()) {
-            onlyTaxiLinks[n.getIndex()] = 1;
-            for (Edge<Integer,Transport> e : graph.getEdgesFrom(n)) {
-                if (e.getData() != Transport.Taxi) {
-                    onlyTaxiLinks[n.getIndex()] = 0;
+    public synchronized String getStatus() {
+        StringBuilder status = new StringBuilder();
+        for (Game game : games.values()) {
+            for (Spectator spectator : game.spectators) {
+                if (spectator instanceof AIPlayer) {
+                    status.append("Game ").append(game.id).append(": ")
+                          .append(((AIPlayer) spectator).getLatency().summary()).append('\n');
                 }
             }
         }
+        status.append("Finished games: ").append(finished.summary()).append('\n');
+        if (scheduler != null) {
+            status.append("Scheduler: ").append(scheduler.getQueueLength()).append(" waiting, ")
+                  .append(scheduler.getLateCount()).append(" of ")
+                  .append(scheduler.getScheduledCount()).append(" started late\n");
+        }
+        return status.toString();
     }
+
     /**
-     * Generates all double moves given a player, previous edge and previous move.
-     * Double moves are two single moves concatenated.
+     * Returns the number of games whose players are still kept.
      *
-     * @param player encoded player int.
-     * @param previousEdge the previous edge
-     * @param movePrevious encoded previous move int
-     * @param generatedMoves reference to a 1-dimensional array for a certain location
+     * @return the number of games.
      */
-    private void generateDoubleMoves(int player, Edge previousEdge, int movePrevious, int[] generatedMoves) {
-        int normalTicket;
-        int secretTicket = encodeTicket(Ticket.Secret);
-        int normalMove;
-        int secretMove;
-        int normalDouble;
-        int secretDouble;
-        Integer middle = (Integer) previousEdge.getTarget().getIndex();
-        Node<Integer> nodeLocation = graph.getNode(middle);
-        for (Edge<Integer, Transport> e : graph.getEdgesFrom(nodeLocation)) {
-           normalTicket = encodeTicket(Ticket.fromTransport(e.getData()));
-           normalMove = player + normalTicket + e.getTarget().getIndex();
-           normalDouble = movePrevious * 100000 + normalMove;
-           addElementToArray(generatedMoves, normalDouble);
-           secretMove = player + secretTicket + e.getTarget().getIndex();
-           secretDouble = movePrevious * 100000 + secretMove;
-           addElementToArray(generatedMoves, secretDouble);
-        }
+    public synchronized int getGameCount() {
+        return games.size();
     }
 
-    /**
-    * Encodes the colour of the player into the move form.
-    *
-    * @param colour a colour of the player to be encoded.
-    * @return a colour of the player in the int form.
-    */
-    public int encodeColour(Colour colour) {
-       for (int i = 0; i < 6; ++i) {
-           if (playerColours[i] == colour)
-                return (i + 1) * 10000;
-       }
-       return -1;
+    @Override
+    public synchronized List<Spectator> getSpectators(ScotlandYardView view) {
+        Game game = games.get(view);
+        if (game == null)
+            return new ArrayList<Spectator>();
+        return new ArrayList<Spectator>(game.spectators);
     }
 
-    /**
-    * Encodes the colour into the move form.
-    *
-    * @param ticket a ticket to be encoded.
-    * @return a ticket in the int form.
-    */
-    public int encodeTicket(Ticket ticket) {
-        for (int i = 0; i < 5; ++i) {
-            if (ticketType[i] == ticket)
-                return (i + 1) * 1000;
-        }
-        return -1;
+    /*
+     * Called at the end of a game; which one is not said, so every game that
+     * is over is released.
+     */
+    @Override
+    public synchronized void finish() {
+        releaseFinishedGames();
     }
 
     /**
-    * Adds a spectator to the list of spectators.
-    *
-    * @param aiPlayer Spectator to be added.
-    */
-    private void addSpectator(Spectator aiPlayer) {
-        spectators.add(aiPlayer);
-    }
-
-    @Override
-    public List<Spectator> getSpectators(ScotlandYardView view) {
-        return spectators;
-    }
+     * A game being played, numbered in the order the games started.
+     */
+    private static class Game {
+        final int id;
+        final List<Spectator> spectators;
 
-    @Override
-    public void finish() {
+        Game(int id) {
+            this.id = id;
+            this.spectators = new ArrayList<Spectator>();
+        }
     }
 
 }
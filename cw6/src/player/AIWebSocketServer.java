@@ -0,0 +1,389 @@
+package player;
+
+import net.*;
+import scotlandyard.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Serves an AI over WebSockets, as the AI server does, and plays in the
+ * binary encoding of WireCodec with any peer that offers it. A JOIN is
+ * sent for every colour of a REGISTERED message, with "encoding": "binary"
+ * when "binary" is among the "encodings" offered; the browser offers none,
+ * and so stays in JSON. From then on the turns of the game, NOTIFY_TURN,
+ * MOVE and NOTIFY, are sent in the encoding agreed, and the rest in JSON.
+ * <p>
+ * Each game is mirrored by a model the players of the factory see. The
+ * NOTIFY messages are played on it as they come, Mr X's hidden moves with
+ * the move the AI sent if it plays him, so that his location is known. A
+ * NOTIFY_TURN is passed to the player whose turn it is, on a thread of its
+ * own, and its move sent back as the MOVE of the turn. A message that
+ * cannot be read is counted and skipped.
+ */
+public class AIWebSocketServer {
+    private final static Player IDLE = new Player() {
+        @Override
+        public void notify(int location, List<Move> moves, Integer token, Receiver receiver) {
+        }
+    };
+
+    private final int port;
+    private final String graphFilename;
+    private final ScotlandYardGraph graph;
+    private final PlayerFactory factory;
+    private final ExecutorService executor;
+    private int badMessages;
+
+    /**
+     * Constructs a new AIWebSocketServer.
+     *
+     * @param port the port to serve the clients on.
+     * @param graphFilename the name of the file containing the graph components.
+     * @param factory the factory of the players.
+     * @throws IOException if the graph cannot be read.
+     */
+    public AIWebSocketServer(int port, String graphFilename, PlayerFactory factory) throws IOException {
+        this.port = port;
+        this.graphFilename = graphFilename;
+        this.graph = new ScotlandYardGraphReader().readGraph(graphFilename);
+        this.factory = factory;
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ai-turn");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Accepts clients until the process ends, each on a thread of its own.
+     *
+     * @throws IOException if the port cannot be bound.
+     */
+    public void run() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port);
+        while (true) {
+            final Socket socket = serverSocket.accept();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "ai-client-" + socket.getPort());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Returns the number of messages skipped because they could not be read.
+     *
+     * @return the number of messages.
+     */
+    public synchronized int getBadMessages() {
+        return badMessages;
+    }
+
+    /**
+     * Plays the games of a client until it closes the connection.
+     *
+     * @param socket the socket of the client.
+     */
+    private void serve(Socket socket) {
+        Map<Integer, Game> games = new HashMap<Integer, Game>();
+        WireCodec.Message frame = new WireCodec.Message();
+        WebSocketConnection connection = null;
+        try {
+            connection = WebSocketConnection.accept(socket);
+            for (Object received = connection.receive(); received != null; received = connection.receive()) {
+                try {
+                    if (received instanceof byte[]) {
+                        receive(connection, games, WireCodec.decode((byte[]) received, frame));
+                    } else {
+                        receive(connection, games, JsonCodec.decode((String) received));
+                    }
+                } catch (IllegalArgumentException e) {
+                    skip(e);
+                } catch (ClassCastException e) {
+                    skip(e);
+                } catch (NullPointerException e) {
+                    // A message missing one of its attributes.
+                    skip(e);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Client closed: " + e.getMessage());
+        } finally {
+            for (Game game : games.values()) {
+                if (game.mirror != null)
+                    game.mirror.over = true;
+            }
+            if (!games.isEmpty())
+                factory.finish();
+            try {
+                if (connection != null) {
+                    connection.close();
+                } else {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // The client has already gone.
+            }
+        }
+    }
+
+    private synchronized void skip(RuntimeException e) {
+        ++badMessages;
+        System.out.println("Skipped a message that could not be read: " + e);
+    }
+
+    /**
+     * Handles a binary frame.
+     */
+    private void receive(WebSocketConnection connection, Map<Integer, Game> games,
+                         WireCodec.Message frame) {
+        Game game = game(games, frame.getGameId());
+        if (frame.getType() == WireCodec.NOTIFY_TURN) {
+            List<Move> moves = new ArrayList<Move>(frame.getMoveCount());
+            for (int i = 0; i < frame.getMoveCount(); ++i) {
+                moves.add(MoveCodec.toMove(frame.getMoves()[i]));
+            }
+            turn(connection, game, frame.getLocation(), moves, frame.getToken());
+        } else if (frame.getType() == WireCodec.NOTIFY) {
+            game.apply(MoveCodec.toMove(frame.getMove()));
+        } else {
+            throw new IllegalArgumentException("Unexpected frame type: " + frame.getType());
+        }
+    }
+
+    /**
+     * Handles a JSON message.
+     */
+    private void receive(WebSocketConnection connection, Map<Integer, Game> games, Object decoded)
+            throws IOException {
+        if (!(decoded instanceof Map))
+            throw new IllegalArgumentException("Not a message: " + decoded);
+        Map<?, ?> message = (Map<?, ?>) decoded;
+        Object type = message.get("type");
+        int gameId = number(message.get("game_id"));
+        if ("REGISTERED".equals(type)) {
+            register(connection, games, gameId, message);
+        } else if ("READY".equals(type)) {
+            game(games, gameId).start(message);
+        } else if ("NOTIFY_TURN".equals(type)) {
+            Game game = game(games, gameId);
+            List<Move> moves = new ArrayList<Move>();
+            for (Object move : (List<?>) message.get("valid_moves")) {
+                moves.add(JsonCodec.decodeMove(((Map<?, ?>) move).get("move"), ((Map<?, ?>) move).get("move_type")));
+            }
+            int location = message.containsKey("location") ? number(message.get("location")) : -1;
+            turn(connection, game, location, moves, number(message.get("token")));
+        } else if ("NOTIFY".equals(type)) {
+            game(games, gameId).apply(JsonCodec.decodeMove(message.get("move"), message.get("move_type")));
+        } else if ("GAME_OVER".equals(type)) {
+            Game game = games.remove(gameId);
+            if (game != null && game.mirror != null) {
+                game.mirror.over = true;
+                factory.finish();
+            }
+        }
+    }
+
+    /**
+     * Joins a game as every colour it is registered for.
+     */
+    private void register(WebSocketConnection connection, Map<Integer, Game> games, int gameId,
+                          Map<?, ?> message) throws IOException {
+        Object encodings = message.get("encodings");
+        boolean binary = (encodings instanceof List) && ((List<?>) encodings).contains(WireCodec.ENCODING);
+        Set<Colour> colours = new HashSet<Colour>();
+        for (Object colour : (List<?>) message.get("colours")) {
+            colours.add(Colour.valueOf(String.valueOf(colour)));
+        }
+        games.put(gameId, new Game(gameId, colours, binary));
+        for (Colour colour : colours) {
+            Map<String, Object> join = new LinkedHashMap<String, Object>();
+            join.put("type", "JOIN");
+            join.put("game_id", gameId);
+            join.put("colour", colour);
+            if (binary)
+                join.put("encoding", WireCodec.ENCODING);
+            connection.send(JsonCodec.encode(join));
+        }
+    }
+
+    /**
+     * Passes a turn to the player whose turn it is, which sends its move
+     * from a thread of the executor.
+     */
+    private void turn(final WebSocketConnection connection, final Game game, int location,
+                      final List<Move> moves, final int token) {
+        final Colour colour = game.mirror.getCurrentPlayer();
+        final Player player = game.players.get(colour);
+        if (player == null)
+            throw new IllegalArgumentException("Not our turn in game " + game.id + ": " + colour);
+        final int at = (location >= 0) ? location : game.locationOf(colour);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                player.notify(at, moves, token, new Receiver() {
+                    @Override
+                    public void playMove(Move move, Integer token) {
+                        game.sent(move);
+                        try {
+                            if (game.binary) {
+                                connection.send(WireCodec.encodeMove(game.id, token, MoveCodec.fromMove(move)));
+                            } else {
+                                Map<String, Object> message = new LinkedHashMap<String, Object>();
+                                message.put("type", "MOVE");
+                                message.put("game_id", game.id);
+                                message.put("move", JsonCodec.encodeMove(move));
+                                message.put("move_type", move.getClass().getSimpleName());
+                                message.put("token", token);
+                                connection.send(JsonCodec.encode(message));
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static Game game(Map<Integer, Game> games, int gameId) {
+        Game game = games.get(gameId);
+        if (game == null)
+            throw new IllegalArgumentException("Unknown game: " + gameId);
+        return game;
+    }
+
+    private static int number(Object value) {
+        if (!(value instanceof Number))
+            throw new IllegalArgumentException("Not a number: " + value);
+        return ((Number) value).intValue();
+    }
+
+    /**
+     * A game being played: the model the players see, their locations and
+     * the moves they last sent.
+     */
+    private class Game {
+        final int id;
+        final Set<Colour> colours;
+        final boolean binary;
+        final Map<Colour, Player> players;
+        final Map<Colour, Integer> locations;
+        final Map<Colour, Move> sent;
+        Mirror mirror;
+        int halvesToSkip;
+
+        Game(int id, Set<Colour> colours, boolean binary) {
+            this.id = id;
+            this.colours = colours;
+            this.binary = binary;
+            this.players = new ConcurrentHashMap<Colour, Player>();
+            this.locations = new HashMap<Colour, Integer>();
+            this.sent = new HashMap<Colour, Move>();
+        }
+
+        /**
+         * Sets up the model from a READY message and gets the players.
+         */
+        @SuppressWarnings("unchecked")
+        void start(Map<?, ?> ready) {
+            List<Boolean> rounds = (List<Boolean>) ready.get("rounds");
+            mirror = new Mirror(number(ready.get("n_detectives")), rounds, graph, id);
+            Map<?, ?> startLocations = (Map<?, ?>) ready.get("locations");
+            Map<?, ?> startTickets = (Map<?, ?>) ready.get("tickets");
+            for (Object name : (List<?>) ready.get("colours")) {
+                Colour colour = Colour.valueOf(String.valueOf(name));
+                Map<Ticket, Integer> tickets = new HashMap<Ticket, Integer>();
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) startTickets.get(colour.toString())).entrySet()) {
+                    tickets.put(Ticket.valueOf(String.valueOf(entry.getKey())), number(entry.getValue()));
+                }
+                int location = number(startLocations.get(colour.toString()));
+                locations.put(colour, location);
+                mirror.join(IDLE, colour, location, tickets);
+            }
+            for (Colour colour : colours) {
+                players.put(colour, factory.getPlayer(colour, mirror, graphFilename));
+            }
+            for (Spectator spectator : factory.getSpectators(mirror)) {
+                mirror.spectate(spectator);
+            }
+            factory.ready();
+        }
+
+        synchronized void sent(Move move) {
+            sent.put(move.colour, move);
+        }
+
+        synchronized int locationOf(Colour colour) {
+            return locations.get(colour);
+        }
+
+        /**
+         * Plays a NOTIFY on the model. The halves of a double move, which
+         * are notified after it, are skipped, and a move of our own players
+         * is played as it was sent, since Mr X's is notified hidden.
+         */
+        synchronized void apply(Move move) {
+            if (mirror == null)
+                throw new IllegalArgumentException("NOTIFY before READY in game " + id);
+            if (halvesToSkip > 0) {
+                --halvesToSkip;
+                return;
+            }
+            Move own = sent.remove(move.colour);
+            if (own != null && sameTickets(own, move))
+                move = own;
+            if (move instanceof MoveTicket) {
+                locations.put(move.colour, ((MoveTicket) move).target);
+            } else if (move instanceof MoveDouble) {
+                locations.put(move.colour, ((MoveDouble) move).move2.target);
+                halvesToSkip = 2;
+            }
+            mirror.apply(move);
+        }
+    }
+
+    private static boolean sameTickets(Move a, Move b) {
+        if (a instanceof MoveTicket && b instanceof MoveTicket)
+            return ((MoveTicket) a).ticket == ((MoveTicket) b).ticket;
+        if (a instanceof MoveDouble && b instanceof MoveDouble)
+            return sameTickets(((MoveDouble) a).move1, ((MoveDouble) b).move1)
+                && sameTickets(((MoveDouble) a).move2, ((MoveDouble) b).move2);
+        return a instanceof MovePass && b instanceof MovePass;
+    }
+
+    /**
+     * The model of a game played elsewhere, on which the moves notified
+     * are played. The game is over when the peer says so, rather than by
+     * the locations it knows, which for a hidden Mr X are not his.
+     */
+    private static class Mirror extends ScotlandYard {
+        volatile boolean over;
+
+        Mirror(int numberOfDetectives, List<Boolean> rounds, ScotlandYardGraph graph, int gameId) {
+            super(numberOfDetectives, rounds, graph, new ScotlandYardMapQueue<Integer, Token>(), gameId);
+        }
+
+        void apply(Move move) {
+            play(move);
+            nextPlayer();
+        }
+
+        @Override
+        public boolean isGameOver() {
+            return over;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package player;
+
+import scotlandyard.*;
+import graph.*;
+
+/**
+ * A BeliefSet is a fixed-width bitset over the nodes of the map, used to hold
+ * the locations Mr X could possibly be at. The map has 199 nodes, so four
+ * longs are enough to hold every node index. Advancing the belief for a
+ * ticket is a handful of word-wide OR operations using the precomputed
+ * neighbour masks, and removing a node is a single bit clear.
+ */
+public class BeliefSet {
+    public final static int WORDS = 4;
+    public final static int CAPACITY = WORDS * 64;
+
+    final long[] words;
+
+    /**
+     * Constructs a new, empty BeliefSet.
+     */
+    public BeliefSet() {
+        words = new long[WORDS];
+    }
+
+    /**
+     * Removes every location from the set.
+     */
+    public void clear() {
+        words[0] = 0;
+        words[1] = 0;
+        words[2] = 0;
+        words[3] = 0;
+    }
+
+    /**
+     * Adds a location to the set.
+     *
+     * @param location the node index to be added.
+     */
+    public void add(int location) {
+        words[location >>> 6] |= 1L << location;
+    }
+
+    /**
+     * Removes a location from the set.
+     *
+     * @param location the node index to be removed.
+     */
+    public void remove(int location) {
+        words[location >>> 6] &= ~(1L << location);
+    }
+
+    /**
+     * Checks if a location is in the set.
+     *
+     * @param location the node index to be checked.
+     * @return true if the location is in the set and false otherwise.
+     */
+    public boolean contains(int location) {
+        return (words[location >>> 6] & (1L << location)) != 0;
+    }
+
+    /**
+     * Returns the number of locations in the set.
+     *
+     * @return the number of locations in the set.
+     */
+    public int size() {
+        return Long.bitCount(words[0]) + Long.bitCount(words[1])
+             + Long.bitCount(words[2]) + Long.bitCount(words[3]);
+    }
+
+    /**
+     * Checks if the set is empty.
+     *
+     * @return true if the set contains no locations and false otherwise.
+     */
+    public boolean isEmpty() {
+        return (words[0] | words[1] | words[2] | words[3]) == 0;
+    }
+
+    /**
+     * Overwrites this set with the contents of another set.
+     *
+     * @param other the set to be copied.
+     */
+    public void copyFrom(BeliefSet other) {
+        words[0] = other.words[0];
+        words[1] = other.words[1];
+        words[2] = other.words[2];
+        words[3] = other.words[3];
+    }
+
+    /**
+     * Returns the smallest location in the set that is greater than or equal
+     * to the given one. Used to iterate over the set:
+     * <pre>
+     *   for (int l = set.nextLocation(0); l >= 0; l = set.nextLocation(l + 1))
+     * </pre>
+     *
+     * @param from the location to start searching from.
+     * @return the next location in the set or -1 if there is none.
+     */
+    public int nextLocation(int from) {
+        int word = from >>> 6;
+        if (word >= WORDS) return -1;
+        long bits = words[word] & (-1L << from);
+        while (true) {
+            if (bits != 0)
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            if (++word == WORDS)
+                return -1;
+            bits = words[word];
+        }
+    }
+
+    /**
+     * Replaces every location in the set with all the locations reachable
+     * from it using a given ticket, leaving out the occupied nodes.
+     *
+     * @param mask the neighbour masks of the ticket used, as built by neighbourMasks().
+     * @param occupied the set of nodes currently occupied by detectives.
+     */
+    public void advance(long[] mask, BeliefSet occupied) {
+        long w0 = 0, w1 = 0, w2 = 0, w3 = 0;
+        for (int word = 0; word < WORDS; ++word) {
+            long bits = words[word];
+            while (bits != 0) {
+                int base = ((word << 6) + Long.numberOfTrailingZeros(bits)) * WORDS;
+                bits &= bits - 1;
+                w0 |= mask[base];
+                w1 |= mask[base + 1];
+                w2 |= mask[base + 2];
+                w3 |= mask[base + 3];
+            }
+        }
+        words[0] = w0 & ~occupied.words[0];
+        words[1] = w1 & ~occupied.words[1];
+        words[2] = w2 & ~occupied.words[2];
+        words[3] = w3 & ~occupied.words[3];
+    }
+
+    /**
+     * Precomputes the neighbour masks for every ticket type. The masks are
+     * indexed the same way as Simulator.ticketType, and the mask of a node is
+     * stored in the WORDS longs starting at node * WORDS. A secret ticket can
+     * be used on any edge, while a double ticket moves nowhere by itself.
+     *
+     * @param graph the graph of the map.
+     * @return a two dimensional array containing the neighbour masks for each ticket.
+     */
+    public static long[][] neighbourMasks(Graph<Integer, Transport> graph) {
+        long[][] masks = new long[Simulator.ticketType.length][CAPACITY * WORDS];
+        int secret = ticketIndex(Ticket.Secret);
+        for (Edge<Integer, Transport> e : graph.getEdges()) {
+            int source = e.getSource().getIndex();
+            int target = e.getTarget().getIndex();
+            int ticket = ticketIndex(Ticket.fromTransport(e.getData()));
+            setMaskBit(masks[ticket], source, target);
+            setMaskBit(masks[ticket], target, source);
+            setMaskBit(masks[secret], source, target);
+            setMaskBit(masks[secret], target, source);
+        }
+        return masks;
+    }
+
+    /**
+     * Returns the index of a ticket in Simulator.ticketType.
+     *
+     * @param ticket the ticket to be looked up.
+     * @return the index of the ticket.
+     */
+    private static int ticketIndex(Ticket ticket) {
+        for (int i = 0; i < Simulator.ticketType.length; ++i) {
+            if (Simulator.ticketType[i] == ticket)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Marks a target node as reachable from a source node in a mask.
+     *
+     * @param mask the mask to be updated.
+     * @param source the source node.
+     * @param target the target node.
+     */
+    private static void setMaskBit(long[] mask, int source, int target) {
+        mask[source * WORDS + (target >>> 6)] |= 1L << target;
+    }
+}
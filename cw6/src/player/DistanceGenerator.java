@@ -0,0 +1,190 @@
+package player;
+
+import scotlandyard.*;
+import graph.*;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Generates the all-pairs distance matrices of a map by running a breadth
+ * first search from every node, with the sources split between the threads
+ * of a ForkJoinPool. A matrix is built for each subset of transports a player
+ * may be limited to:
+ * <pre>
+ *   ANY             every link
+ *   TAXI_ONLY       taxi links only
+ *   NO_UNDERGROUND  every link but the underground
+ *   DETECTIVE       every link but the boat, which detectives cannot use
+ * </pre>
+ * A matrix is indexed by source * NODES + target and holds UNREACHABLE for
+ * pairs that are not connected using the subset. The DETECTIVE matrix is the
+ * one in lookup-node-distances.txt, which can be regenerated by running:
+ * <pre>
+ *   java player.DistanceGenerator graph.txt
+ * </pre>
+ */
+public class DistanceGenerator {
+    public final static int ANY = 0;
+    public final static int TAXI_ONLY = 1;
+    public final static int NO_UNDERGROUND = 2;
+    public final static int DETECTIVE = 3;
+    public final static int SUBSETS = 4;
+    public final static int NODES = PrecomputedTables.NODES;
+    public final static byte UNREACHABLE = Byte.MAX_VALUE;
+
+    private final static int SOURCES_PER_TASK = 8;
+
+    private final int[] allowed;
+    final int[] offsets;
+    final int[] targets;
+    final int[] transports;
+
+    /**
+     * Constructs a new DistanceGenerator for a map.
+     *
+     * @param graph the graph of the map.
+     */
+    public DistanceGenerator(Graph<Integer, Transport> graph) {
+        allowed = new int[SUBSETS];
+        for (Transport t : Transport.values()) {
+            allowed[ANY] |= 1 << t.ordinal();
+            if (t == Transport.Taxi)
+                allowed[TAXI_ONLY] |= 1 << t.ordinal();
+            if (t != Transport.Underground)
+                allowed[NO_UNDERGROUND] |= 1 << t.ordinal();
+            if (t != Transport.Boat)
+                allowed[DETECTIVE] |= 1 << t.ordinal();
+        }
+        // Every edge is stored in both directions, grouped by source node.
+        offsets = new int[NODES + 1];
+        for (Edge<Integer, Transport> e : graph.getEdges()) {
+            ++offsets[e.getSource().getIndex() + 1];
+            ++offsets[e.getTarget().getIndex() + 1];
+        }
+        for (int node = 0; node < NODES; ++node) {
+            offsets[node + 1] += offsets[node];
+        }
+        targets = new int[offsets[NODES]];
+        transports = new int[offsets[NODES]];
+        int[] next = new int[NODES];
+        System.arraycopy(offsets, 0, next, 0, NODES);
+        for (Edge<Integer, Transport> e : graph.getEdges()) {
+            int source = e.getSource().getIndex();
+            int target = e.getTarget().getIndex();
+            int transport = 1 << e.getData().ordinal();
+            targets[next[source]] = target;
+            transports[next[source]++] = transport;
+            targets[next[target]] = source;
+            transports[next[target]++] = transport;
+        }
+    }
+
+    /**
+     * Generates the distance matrices of every transport subset.
+     *
+     * @param pool the pool whose threads run the searches.
+     * @return the matrices, indexed by subset.
+     */
+    public byte[][] generate(ForkJoinPool pool) {
+        byte[][] distances = new byte[SUBSETS][NODES * NODES];
+        pool.invoke(new SourceTask(distances, 1, NODES));
+        return distances;
+    }
+
+    /**
+     * Generates the distance matrices using every processor.
+     *
+     * @return the matrices, indexed by subset.
+     */
+    public byte[][] generate() {
+        return generate(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Fills in the distances from a source node to every other node for
+     * one transport subset.
+     *
+     * @param matrix the matrix of the subset.
+     * @param subset the transport subset.
+     * @param source the node to search from.
+     * @param queue a scratch array of at least NODES ints.
+     */
+    private void search(byte[] matrix, int subset, int source, int[] queue) {
+        int row = source * NODES;
+        for (int node = 0; node < NODES; ++node) {
+            matrix[row + node] = UNREACHABLE;
+        }
+        int mask = allowed[subset];
+        int head = 0;
+        int tail = 0;
+        matrix[row + source] = 0;
+        queue[tail++] = source;
+        while (head < tail) {
+            int node = queue[head++];
+            byte distance = (byte) (matrix[row + node] + 1);
+            for (int i = offsets[node]; i < offsets[node + 1]; ++i) {
+                int target = targets[i];
+                if ((transports[i] & mask) != 0 && matrix[row + target] == UNREACHABLE) {
+                    matrix[row + target] = distance;
+                    queue[tail++] = target;
+                }
+            }
+        }
+    }
+
+    /**
+     * Searches from a range of source nodes, splitting the range between
+     * the threads of the pool.
+     */
+    private class SourceTask extends RecursiveAction {
+        private final byte[][] distances;
+        private final int from;
+        private final int to;
+
+        SourceTask(byte[][] distances, int from, int to) {
+            this.distances = distances;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SOURCES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SourceTask(distances, from, middle),
+                          new SourceTask(distances, middle, to));
+                return;
+            }
+            int[] queue = new int[NODES];
+            for (int source = from; source < to; ++source) {
+                for (int subset = 0; subset < SUBSETS; ++subset) {
+                    search(distances[subset], subset, source, queue);
+                }
+            }
+        }
+    }
+
+    /**
+     * Regenerates lookup-node-distances.txt from a graph file.
+     *
+     * @param args the name of the graph file, graph.txt if not given.
+     */
+    public static void main(String[] args) throws IOException {
+        String graphFilename = (args.length > 0) ? args[0] : "graph.txt";
+        ScotlandYardGraph graph = new ScotlandYardGraphReader().readGraph(graphFilename);
+        long startTime = System.currentTimeMillis();
+        byte[] distances = new DistanceGenerator(graph).generate()[DETECTIVE];
+        System.out.println("Generated distances in " + (System.currentTimeMillis() - startTime) + " ms.");
+        PrintWriter writer = new PrintWriter("lookup-node-distances.txt", "UTF-8");
+        for (int source = 1; source < NODES; ++source) {
+            writer.println();
+            for (int target = 1; target < NODES; ++target) {
+                writer.print(distances[source * NODES + target] + " ");
+            }
+        }
+        writer.close();
+    }
+}
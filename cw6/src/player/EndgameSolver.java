@@ -0,0 +1,319 @@
+package player;
+
+import scotlandyard.*;
+
+/**
+ * An exact solver for the last rounds of the game. Near the end the game
+ * tree is small enough to search to the end, so instead of scoring positions
+ * with the heuristic of the minimax, the solver finds out whether Mr X can
+ * survive to the last round whatever the detectives do. The detectives are
+ * assumed to see Mr X, so a win found is a win against any detectives. There
+ * are no draws: Mr X either survives, or he is caught or left without a move.
+ * <p>
+ * A solved position has the same result whatever depth it is reached at, so
+ * results are memoised in a fixed size table keyed by the locations, tickets,
+ * round and player to move, and kept from one move to the next. The belief set
+ * is left out of the key, since with the detectives seeing Mr X it changes
+ * neither the moves nor the result. Two exact shortcuts keep the tree small:
+ * <ul>
+ *   <li>In the last round the detectives only win by stepping onto Mr X, so
+ *       the round is decided by whether a detective still to move can reach
+ *       him in one move, without searching it.</li>
+ *   <li>A detective too far from everyone else to meet them before the end
+ *       only matters through the ticket it hands to Mr X, so only one of its
+ *       moves is tried for each ticket.</li>
+ * </ul>
+ */
+public class EndgameSolver {
+    /** The solver is used once this many rounds or fewer are left. */
+    public final static int DEFAULT_ROUNDS = 2;
+    /** The most rounds the move buffers of the Simulator can search. */
+    public final static int MAX_ROUNDS = 3;
+    /** The memo table holds 2^TABLE_BITS results, 9 bytes each. */
+    public final static int TABLE_BITS = 20;
+    /** Returned by solve() when no winning move was found. */
+    public final static int NOT_SOLVED = -1;
+
+    private final static int UNKNOWN = 0;
+    private final static int WIN = 1;
+    private final static int LOSS = 2;
+    private final static Colour[] playerColours = {
+        Colour.Black,
+        Colour.Blue,
+        Colour.Green,
+        Colour.Red,
+        Colour.White,
+        Colour.Yellow
+    };
+
+    private final Simulator simulator;
+    private final GameMap map;
+    private final BeliefSet scratch;
+    private int rounds;
+    private byte[] distances;
+    private long[] keys;
+    private byte[] results;
+    private long deadline;
+    private boolean stopped;
+    private boolean lost;
+    private long nodes;
+
+    /**
+     * Constructs a new EndgameSolver over a Simulator.
+     *
+     * @param simulator the simulator holding the current game state.
+     * @param map the map the game is played on.
+     */
+    public EndgameSolver(Simulator simulator, GameMap map) {
+        this.simulator = simulator;
+        this.map = map;
+        this.scratch = new BeliefSet();
+        this.rounds = DEFAULT_ROUNDS;
+    }
+
+    /**
+     * Sets how many rounds from the end the solver starts being used.
+     *
+     * @param rounds the number of rounds left, at most MAX_ROUNDS.
+     */
+    public void setRounds(int rounds) {
+        this.rounds = Math.min(rounds, MAX_ROUNDS);
+    }
+
+    /**
+     * Searches for a move with which Mr X survives to the end of the game,
+     * if few enough rounds are left.
+     *
+     * @param location the location of Mr X.
+     * @param deadline the time, in milliseconds, by which the search must stop.
+     * @return a winning move, or NOT_SOLVED if there is none, the game is not
+     * near its end or the deadline passed.
+     */
+    public int solve(int location, long deadline) {
+        this.lost = false;
+        this.stopped = false;
+        this.nodes = 0;
+        this.deadline = deadline;
+        if (simulator.roundsLeft() > rounds)
+            return NOT_SOLVED;
+        if (keys == null) {
+            keys = new long[1 << TABLE_BITS];
+            results = new byte[1 << TABLE_BITS];
+            distances = map.getDistances(DistanceGenerator.ANY);
+        }
+        simulator.placeMrX(location, simulator.mrXPossibleLocations);
+        int[] rootMoves = copyMoves(simulator.generateExactMoves(0));
+        orderMoves(rootMoves, rootMoves.length, true);
+        boolean unknown = false;
+        for (int move : rootMoves) {
+            simulator.playMove(move, scratch);
+            int result = search(1);
+            simulator.undoMove(move, location);
+            if (result == WIN)
+                return move;
+            if (result == UNKNOWN)
+                unknown = true;
+            if (stopped)
+                break;
+        }
+        lost = !unknown && !stopped;
+        return NOT_SOLVED;
+    }
+
+    /**
+     * Checks if the last call of solve() proved that Mr X loses against
+     * detectives who can see him.
+     *
+     * @return true if every move of Mr X loses and false otherwise.
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    /**
+     * Returns the number of positions visited by the last call of solve().
+     *
+     * @return the number of positions visited.
+     */
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Solves the current position.
+     *
+     * @param ply the number of moves played since the root.
+     * @return WIN if Mr X survives, LOSS if he does not, or UNKNOWN if the
+     * deadline passed first.
+     */
+    private int search(int ply) {
+        if ((++nodes & 1023) == 0 && System.currentTimeMillis() >= deadline)
+            stopped = true;
+        if (stopped)
+            return UNKNOWN;
+        if (simulator.isMrXCaught())
+            return LOSS;
+        if (simulator.isLastRound())
+            return WIN;
+        Colour colour = simulator.getCurrentColour();
+        if (colour == Colour.Black && simulator.areDetectivesOutOfTickets())
+            return WIN;
+        long key = simulator.positionKey();
+        int slot = (int) key & (keys.length - 1);
+        if (keys[slot] == key && results[slot] != UNKNOWN)
+            return results[slot];
+        int result;
+        if (colour != Colour.Black && simulator.roundsLeft() == 0) {
+            result = canCatchMrX(colour) ? LOSS : WIN;
+        } else {
+            int[] moves = copyMoves(simulator.generateExactMoves(ply));
+            int count = moves.length;
+            if (colour != Colour.Black && isIrrelevant(colour)) {
+                count = onePerTicket(moves);
+            }
+            orderMoves(moves, count, colour == Colour.Black);
+            result = searchMoves(ply, moves, count, colour == Colour.Black);
+        }
+        if (result != UNKNOWN) {
+            keys[slot] = key;
+            results[slot] = (byte) result;
+        }
+        return result;
+    }
+
+    /**
+     * Solves the current position by trying each move. Mr X wins if any of
+     * his moves wins, the detectives if any of theirs does.
+     *
+     * @param ply the number of moves played since the root.
+     * @param moves the moves of the player to move.
+     * @param count the number of moves to try.
+     * @param mrX true if Mr X is to move and false otherwise.
+     * @return WIN, LOSS or UNKNOWN.
+     */
+    private int searchMoves(int ply, int[] moves, int count, boolean mrX) {
+        if (count == 0)
+            return mrX ? LOSS : WIN;
+        int good = mrX ? WIN : LOSS;
+        boolean unknown = false;
+        int location = simulator.getCurrentLocation();
+        for (int i = 0; i < count; ++i) {
+            simulator.playMove(moves[i], scratch);
+            int result = search(ply + 1);
+            simulator.undoMove(moves[i], location);
+            if (result == good)
+                return good;
+            if (result == UNKNOWN)
+                unknown = true;
+        }
+        if (unknown)
+            return UNKNOWN;
+        return mrX ? LOSS : WIN;
+    }
+
+    /**
+     * Checks if a detective still to move in the last round can step onto Mr X.
+     *
+     * @param colour the colour of the detective to move.
+     * @return true if Mr X is caught in this round and false otherwise.
+     */
+    private boolean canCatchMrX(Colour colour) {
+        int mrX = simulator.getMrXLocation();
+        boolean toMove = false;
+        for (int i = 1; i < playerColours.length; ++i) {
+            if (playerColours[i] == colour)
+                toMove = true;
+            if (toMove && simulator.canReach(playerColours[i], mrX))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a detective is too far from every other player to meet them
+     * before the end of the game, counting every transport so that the
+     * distance is never more than either player could actually need.
+     *
+     * @param colour the colour of the detective to move.
+     * @return true if the moves of the detective cannot affect anyone else.
+     */
+    private boolean isIrrelevant(Colour colour) {
+        int location = simulator.getLocation(colour);
+        // The detective has at most roundsLeft() + 1 moves left, as does any other player.
+        int reach = 2 * (simulator.roundsLeft() + 1);
+        for (Colour other : playerColours) {
+            if (other == colour)
+                continue;
+            if (distances[location * DistanceGenerator.NODES + simulator.getLocation(other)] <= reach)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Keeps only the first move using each ticket.
+     *
+     * @param moves the moves of a detective.
+     * @return the number of moves kept at the start of the array.
+     */
+    private static int onePerTicket(int[] moves) {
+        int kept = 0;
+        int seen = 0;
+        for (int move : moves) {
+            int bit = 1 << (MoveCodec.ticket(move) + 1);
+            if ((seen & bit) == 0) {
+                seen |= bit;
+                moves[kept++] = move;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Orders moves so that the likely best are tried first: Mr X moving away
+     * from the nearest detective, and the detectives moving towards Mr X.
+     *
+     * @param moves the moves to be ordered.
+     * @param count the number of moves at the start of the array to order.
+     * @param mrX true if the moves are Mr X's and false otherwise.
+     */
+    private void orderMoves(int[] moves, int count, boolean mrX) {
+        int[] scores = new int[count];
+        int mrXLocation = simulator.getMrXLocation();
+        for (int i = 0; i < count; ++i) {
+            int move = moves[i];
+            if (MoveCodec.isPass(move)) {
+                scores[i] = Integer.MIN_VALUE;
+            } else if (mrX) {
+                int last = MoveCodec.isDouble(move) ? MoveCodec.second(move) : move;
+                scores[i] = simulator.nearestDetective(MoveCodec.destination(last));
+            } else {
+                scores[i] = -simulator.distance(MoveCodec.destination(move), mrXLocation);
+            }
+        }
+        for (int i = 1; i < count; ++i) {
+            int move = moves[i];
+            int score = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                moves[j + 1] = moves[j];
+                scores[j + 1] = scores[j];
+                --j;
+            }
+            moves[j + 1] = move;
+            scores[j + 1] = score;
+        }
+    }
+
+    /**
+     * Copies the moves out of a move buffer.
+     *
+     * @param buffer a move buffer, with the number of moves in slot 0.
+     * @return the moves.
+     */
+    private static int[] copyMoves(int[] buffer) {
+        int[] moves = new int[buffer[0]];
+        System.arraycopy(buffer, 1, moves, 0, moves.length);
+        return moves;
+    }
+}
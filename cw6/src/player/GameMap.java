@@ -0,0 +1,153 @@
+package player;
+
+import scotlandyard.*;
+import graph.*;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The GameMap holds everything a Simulator derives from the map alone: the
+ * graph, the links of each node as arrays, the neighbour masks of each
+ * ticket, the transition matrices of Mr X and the all-pairs distances. None
+ * of it changes once built, so a single GameMap per map is shared by the
+ * simulators of every game played in the JVM, and only the game state and
+ * the search buffers are kept per game.
+ * <p>
+ * The arrays are handed out as they are, without copying; callers must only
+ * read them.
+ */
+public class GameMap {
+    private final static Map<String, GameMap> shared = new HashMap<String, GameMap>();
+
+    private final ScotlandYardGraph graph;
+    private final DistanceGenerator generator;
+    private final byte[][] distances;
+    private final long[][] ticketMasks;
+    private final TransitionMatrices transitions;
+    private final int[][] edgeTargets;
+    private final Ticket[][] edgeTickets;
+
+    /**
+     * Constructs a new GameMap, computing every table of a map.
+     *
+     * @param graph the graph of the map.
+     */
+    public GameMap(ScotlandYardGraph graph) {
+        this.graph = graph;
+        this.generator = new DistanceGenerator(graph);
+        this.distances = generator.generate();
+        this.ticketMasks = BeliefSet.neighbourMasks(graph);
+        this.transitions = new TransitionMatrices(graph);
+        this.edgeTargets = new int[BeliefSet.CAPACITY][0];
+        this.edgeTickets = new Ticket[BeliefSet.CAPACITY][0];
+        buildAdjacency();
+    }
+
+    /**
+     * Returns the GameMap of a map shared by every game in the JVM, reading
+     * the graph and computing the tables on the first call for the map.
+     *
+     * @param graphFilename the name of the file containing the graph components.
+     * @return the shared GameMap.
+     */
+    public static synchronized GameMap getShared(String graphFilename) {
+        GameMap map = shared.get(graphFilename);
+        if (map == null) {
+            ScotlandYardGraph graph = new ScotlandYardGraph();
+            try {
+                graph = new ScotlandYardGraphReader().readGraph(graphFilename);
+            } catch (IOException e) {
+                System.out.println("Error creating ScotlandYardGraph from file.");
+            }
+            map = new GameMap(graph);
+            shared.put(graphFilename, map);
+        }
+        return map;
+    }
+
+    /**
+     * Copies the links of the graph into arrays indexed by node, in the order
+     * the graph gives them, so that moves are generated without going
+     * through the graph's lists and boxed node indices.
+     */
+    private void buildAdjacency() {
+        for (int node = 0; node < BeliefSet.CAPACITY; ++node) {
+            Node<Integer> n = graph.getNode(node);
+            if (n == null || graph.getEdgesFrom(n) == null)
+                continue;
+            List<Edge<Integer, Transport>> edges = graph.getEdgesFrom(n);
+            edgeTargets[node] = new int[edges.size()];
+            edgeTickets[node] = new Ticket[edges.size()];
+            for (int i = 0; i < edges.size(); ++i) {
+                edgeTargets[node][i] = edges.get(i).getTarget().getIndex();
+                edgeTickets[node][i] = Ticket.fromTransport(edges.get(i).getData());
+            }
+        }
+    }
+
+    /**
+     * Returns the graph of the map.
+     *
+     * @return the graph.
+     */
+    public ScotlandYardGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Returns the links of the map in the form searched by DistanceGenerator.
+     *
+     * @return the distance generator of the map.
+     */
+    DistanceGenerator getGenerator() {
+        return generator;
+    }
+
+    /**
+     * Returns the all-pairs distance matrix for a subset of transports.
+     *
+     * @param subset one of the subsets of DistanceGenerator, e.g. DistanceGenerator.ANY.
+     * @return the matrix, indexed by source * NODES + target.
+     */
+    byte[] getDistances(int subset) {
+        return distances[subset];
+    }
+
+    /**
+     * Returns the neighbour masks of each ticket, as built by BeliefSet.neighbourMasks().
+     *
+     * @return the masks, indexed like Simulator.ticketType.
+     */
+    long[][] getTicketMasks() {
+        return ticketMasks;
+    }
+
+    /**
+     * Returns the transition matrices of Mr X.
+     *
+     * @return the transition matrices.
+     */
+    TransitionMatrices getTransitions() {
+        return transitions;
+    }
+
+    /**
+     * Returns the targets of the links of each node.
+     *
+     * @return the targets, indexed by node.
+     */
+    int[][] getEdgeTargets() {
+        return edgeTargets;
+    }
+
+    /**
+     * Returns the tickets of the links of each node, in the same order as
+     * getEdgeTargets().
+     *
+     * @return the tickets, indexed by node.
+     */
+    Ticket[][] getEdgeTickets() {
+        return edgeTickets;
+    }
+}
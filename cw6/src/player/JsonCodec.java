@@ -0,0 +1,301 @@
+package player;
+
+import scotlandyard.*;
+
+import java.util.*;
+
+/**
+ * Encodes and decodes the JSON of the messages the judge and the AI server
+ * exchange. Only what those messages use is supported: objects become
+ * Maps, arrays Lists, numbers Longs or Doubles, and enums are written as
+ * their names. A move is sent as its attributes, under "move", with the
+ * name of its class under "move_type".
+ */
+class JsonCodec {
+
+    private JsonCodec() {
+    }
+
+    /**
+     * Encodes a value as JSON.
+     *
+     * @param value a Map, Collection, String, Number, Boolean, enum or null.
+     * @return the JSON text.
+     */
+    static String encode(Object value) {
+        StringBuilder json = new StringBuilder();
+        encode(value, json);
+        return json.toString();
+    }
+
+    private static void encode(Object value, StringBuilder json) {
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof Map) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first)
+                    json.append(',');
+                first = false;
+                encodeString(entry.getKey().toString(), json);
+                json.append(':');
+                encode(entry.getValue(), json);
+            }
+            json.append('}');
+        } else if (value instanceof Collection) {
+            json.append('[');
+            boolean first = true;
+            for (Object element : (Collection<?>) value) {
+                if (!first)
+                    json.append(',');
+                first = false;
+                encode(element, json);
+            }
+            json.append(']');
+        } else if (value instanceof Number || value instanceof Boolean) {
+            json.append(value);
+        } else {
+            encodeString(value.toString(), json);
+        }
+    }
+
+    private static void encodeString(String s, StringBuilder json) {
+        json.append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Encodes a move as the attributes of a message.
+     *
+     * @param move the move.
+     * @return the attributes of the move.
+     */
+    static Map<String, Object> encodeMove(Move move) {
+        Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+        attributes.put("colour", move.colour);
+        if (move instanceof MoveTicket) {
+            attributes.put("target", ((MoveTicket) move).target);
+            attributes.put("ticket", ((MoveTicket) move).ticket);
+        } else if (move instanceof MoveDouble) {
+            attributes.put("move1", encodeMove(((MoveDouble) move).move1));
+            attributes.put("move2", encodeMove(((MoveDouble) move).move2));
+        }
+        return attributes;
+    }
+
+    /**
+     * Decodes a move from the attributes of a message.
+     *
+     * @param attributes the attributes of the move, as decoded.
+     * @param moveType MoveTicket, MoveDouble or MovePass.
+     * @return the move.
+     * @throws IllegalArgumentException if the attributes are not a move of the type.
+     */
+    static Move decodeMove(Object attributes, Object moveType) {
+        if (!(attributes instanceof Map))
+            throw new IllegalArgumentException("Not a move: " + attributes);
+        Map<?, ?> move = (Map<?, ?>) attributes;
+        Colour colour = Colour.valueOf(String.valueOf(move.get("colour")));
+        if ("MoveTicket".equals(moveType)) {
+            if (!(move.get("target") instanceof Number))
+                throw new IllegalArgumentException("Not a move: " + attributes);
+            return MoveTicket.instance(colour, Ticket.valueOf(String.valueOf(move.get("ticket"))),
+                                       ((Number) move.get("target")).intValue());
+        } else if ("MoveDouble".equals(moveType)) {
+            return MoveDouble.instance(colour, (MoveTicket) decodeMove(move.get("move1"), "MoveTicket"),
+                                       (MoveTicket) decodeMove(move.get("move2"), "MoveTicket"));
+        } else if ("MovePass".equals(moveType)) {
+            return MovePass.instance(colour);
+        }
+        throw new IllegalArgumentException("Unknown move type: " + moveType);
+    }
+
+    /**
+     * Decodes JSON text.
+     *
+     * @param text the JSON text.
+     * @return the value, as a Map, List, String, Long, Double, Boolean or null.
+     * @throws IllegalArgumentException if the text is not valid JSON.
+     */
+    static Object decode(String text) {
+        Parser parser = new Parser(text);
+        Object value = parser.value();
+        parser.skipSpace();
+        if (parser.position != text.length())
+            throw parser.error("Trailing characters");
+        return value;
+    }
+
+    /**
+     * A recursive descent parser over the text.
+     */
+    private static class Parser {
+        final String text;
+        int position;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Object value() {
+            skipSpace();
+            if (position >= text.length())
+                throw error("Unexpected end");
+            char c = text.charAt(position);
+            if (c == '{')
+                return object();
+            if (c == '[')
+                return array();
+            if (c == '"')
+                return string();
+            if (text.startsWith("true", position)) {
+                position += 4;
+                return Boolean.TRUE;
+            }
+            if (text.startsWith("false", position)) {
+                position += 5;
+                return Boolean.FALSE;
+            }
+            if (text.startsWith("null", position)) {
+                position += 4;
+                return null;
+            }
+            return number();
+        }
+
+        Map<String, Object> object() {
+            Map<String, Object> object = new LinkedHashMap<String, Object>();
+            ++position;
+            skipSpace();
+            if (peek() == '}') {
+                ++position;
+                return object;
+            }
+            while (true) {
+                skipSpace();
+                String key = string();
+                skipSpace();
+                expect(':');
+                object.put(key, value());
+                skipSpace();
+                if (peek() == '}') {
+                    ++position;
+                    return object;
+                }
+                expect(',');
+            }
+        }
+
+        List<Object> array() {
+            List<Object> array = new ArrayList<Object>();
+            ++position;
+            skipSpace();
+            if (peek() == ']') {
+                ++position;
+                return array;
+            }
+            while (true) {
+                array.add(value());
+                skipSpace();
+                if (peek() == ']') {
+                    ++position;
+                    return array;
+                }
+                expect(',');
+            }
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder s = new StringBuilder();
+            while (true) {
+                if (position >= text.length())
+                    throw error("Unterminated string");
+                char c = text.charAt(position++);
+                if (c == '"')
+                    return s.toString();
+                if (c != '\\') {
+                    s.append(c);
+                    continue;
+                }
+                if (position >= text.length())
+                    throw error("Unterminated escape");
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'b': s.append('\b'); break;
+                    case 'f': s.append('\f'); break;
+                    case 'n': s.append('\n'); break;
+                    case 'r': s.append('\r'); break;
+                    case 't': s.append('\t'); break;
+                    case 'u':
+                        s.append(unicode());
+                        break;
+                    default: s.append(escaped);
+                }
+            }
+        }
+
+        /**
+         * Reads the four hex digits of a unicode escape.
+         */
+        char unicode() {
+            if (position + 4 > text.length())
+                throw error("Short \\u escape");
+            int c = 0;
+            for (int i = 0; i < 4; ++i) {
+                int digit = Character.digit(text.charAt(position), 16);
+                if (digit < 0)
+                    throw error("Bad \\u escape");
+                c = 16 * c + digit;
+                ++position;
+            }
+            return (char) c;
+        }
+
+        Object number() {
+            int start = position;
+            while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+                ++position;
+            }
+            String number = text.substring(start, position);
+            if (number.isEmpty())
+                throw error("Unexpected character");
+            if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0)
+                return Double.valueOf(number);
+            return Long.valueOf(number);
+        }
+
+        char peek() {
+            if (position >= text.length())
+                throw error("Unexpected end");
+            return text.charAt(position);
+        }
+
+        void expect(char c) {
+            if (peek() != c)
+                throw error("Expected '" + c + "'");
+            ++position;
+        }
+
+        void skipSpace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                ++position;
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at " + position + " in JSON: " + text);
+        }
+    }
+}
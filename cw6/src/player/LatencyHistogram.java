@@ -0,0 +1,156 @@
+package player;
+
+/**
+ * A histogram of latencies in microseconds, in the style of HdrHistogram:
+ * values below 64 get a bucket each, and every power of two above that is
+ * split into 32 buckets, so a value is known to within about 3% whatever
+ * its size. The buckets are a fixed array covering up to MAX_VALUE, about
+ * 71 minutes, and larger values are counted as MAX_VALUE, so recording
+ * never allocates.
+ * <p>
+ * The methods are synchronized, so that a status page may read the
+ * histogram of a game while its player records into it.
+ */
+public class LatencyHistogram {
+    /** The largest value told apart from the others. */
+    public final static long MAX_VALUE = (1L << 32) - 1;
+
+    private final static int SUB_BITS = 5;
+    private final static int SUB_BUCKETS = 1 << SUB_BITS;
+    private final static int LINEAR = 2 * SUB_BUCKETS;
+    private final static int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final long[] counts;
+    private long count;
+    private long total;
+    private long max;
+
+    /**
+     * Constructs a new, empty LatencyHistogram.
+     */
+    public LatencyHistogram() {
+        this.counts = new long[BUCKETS];
+    }
+
+    /**
+     * Returns the bucket of a value.
+     *
+     * @param value a value between 0 and MAX_VALUE.
+     * @return the index of the bucket.
+     */
+    private static int index(long value) {
+        if (value < LINEAR)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (value >> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the largest value counted in a bucket.
+     *
+     * @param index the index of the bucket.
+     * @return the largest value of the bucket.
+     */
+    private static long highestValue(int index) {
+        if (index < LINEAR)
+            return index;
+        int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        long top = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * Counts a latency.
+     *
+     * @param nanos the latency in nanoseconds.
+     */
+    public synchronized void recordNanos(long nanos) {
+        long value = Math.min(Math.max(nanos / 1000, 0), MAX_VALUE);
+        ++counts[index(value)];
+        ++count;
+        total += value;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other the histogram to be added.
+     */
+    public void add(LatencyHistogram other) {
+        long[] otherCounts;
+        long otherCount, otherTotal, otherMax;
+        synchronized (other) {
+            otherCounts = other.counts.clone();
+            otherCount = other.count;
+            otherTotal = other.total;
+            otherMax = other.max;
+        }
+        synchronized (this) {
+            for (int i = 0; i < BUCKETS; ++i) {
+                counts[i] += otherCounts[i];
+            }
+            count += otherCount;
+            total += otherTotal;
+            max = Math.max(max, otherMax);
+        }
+    }
+
+    /**
+     * Returns the number of latencies counted.
+     *
+     * @return the number of latencies.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the largest latency counted.
+     *
+     * @return the largest latency in microseconds, or 0 if none was counted.
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the mean of the latencies counted.
+     *
+     * @return the mean in microseconds, or 0 if none was counted.
+     */
+    public synchronized double getMean() {
+        return (count == 0) ? 0 : (double) total / count;
+    }
+
+    /**
+     * Returns a percentile of the latencies counted, as the largest value of
+     * the bucket it falls in, but never more than the largest latency.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the latency in microseconds, or 0 if none was counted.
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0)
+            return 0;
+        long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(highestValue(i), max);
+        }
+        return max;
+    }
+
+    /**
+     * Returns the median, 99th percentile and maximum of the latencies, in
+     * milliseconds, e.g. "p50 12.1 ms, p99 98.3 ms, max 101.0 ms".
+     *
+     * @return the summary.
+     */
+    public synchronized String summary() {
+        return String.format("p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                             getPercentile(50) / 1000.0, getPercentile(99) / 1000.0, max / 1000.0);
+    }
+}
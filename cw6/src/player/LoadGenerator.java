@@ -0,0 +1,508 @@
+package player;
+
+import scotlandyard.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the judge and the browser client to put an AI service
+ * under load, without the matchmaker, the judge or a browser. Each
+ * simulated game opens a WebSocket to the AI server, as the browser does,
+ * and plays the judge's side of the message protocol:
+ * <pre>
+ *   REGISTERED   the AI is asked to play Mr X, and answers with a JOIN
+ *   READY        the players, their locations and tickets
+ *   NOTIFY_TURN  for each of Mr X's turns, answered with a MOVE
+ *   NOTIFY       for every move played
+ *   GAME_OVER    the winners
+ * </pre>
+ * The game itself is run by a local ScotlandYard model with random
+ * detectives. A MOVE that does not come within the move timer counts as a
+ * timeout, and one that is not valid as an invalid move; either way a
+ * random move is played for Mr X so that the game goes on. Each game
+ * offers the binary encoding of WireCodec, and plays in it if the AI
+ * accepts, as the AIService does when started with binary, or in JSON
+ * otherwise. To run it:
+ * <pre>
+ *   java player.LoadGenerator [host:]port [games [concurrency [moveTimer [json]]]]
+ * </pre>
+ * where port is the client port of the AI service, concurrency the number
+ * of games played at once, 100 by default as are the games, moveTimer
+ * the milliseconds the AI has for each move, 10000 by default, and json
+ * stops the binary encoding being offered. The games per second, the turns
+ * per second, the time from NOTIFY_TURN to MOVE, the number of timeouts
+ * and of messages that could not be read, and the bytes on the wire per
+ * turn are reported.
+ */
+public class LoadGenerator {
+    public final static int DEFAULT_GAMES = 100;
+    public final static int DEFAULT_CONCURRENCY = 100;
+    public final static long DEFAULT_MOVE_TIMER = 10000;
+
+    private final static int DETECTIVES = 5;
+    private final static long SEED = 1;
+    private final static long JOIN_TIMEOUT = 10000;
+
+    private final String host;
+    private final int port;
+    private final ScotlandYardGraph graph;
+    private final long moveTimer;
+    private final LatencyHistogram latency;
+    private final AtomicLong turns;
+    private final AtomicLong timeouts;
+    private final AtomicLong invalidMoves;
+    private final AtomicLong mrXWins;
+    private final AtomicLong failedGames;
+    private final AtomicLong binaryGames;
+    private final AtomicLong bytes;
+    private final AtomicLong badMessages;
+    private boolean offerBinary;
+
+    /**
+     * Constructs a new LoadGenerator.
+     *
+     * @param host the host of the AI service.
+     * @param port the client port of the AI service.
+     * @param graphFilename the name of the file containing the graph components.
+     * @param moveTimer the number of milliseconds the AI has for each move.
+     * @throws IOException if the graph cannot be read.
+     */
+    public LoadGenerator(String host, int port, String graphFilename, long moveTimer) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.graph = new ScotlandYardGraphReader().readGraph(graphFilename);
+        this.moveTimer = moveTimer;
+        this.latency = new LatencyHistogram();
+        this.turns = new AtomicLong();
+        this.timeouts = new AtomicLong();
+        this.invalidMoves = new AtomicLong();
+        this.mrXWins = new AtomicLong();
+        this.failedGames = new AtomicLong();
+        this.binaryGames = new AtomicLong();
+        this.bytes = new AtomicLong();
+        this.badMessages = new AtomicLong();
+        this.offerBinary = true;
+    }
+
+    /**
+     * Sets whether the games offer the binary encoding of WireCodec.
+     *
+     * @param offerBinary true if the binary encoding is offered, which it
+     *                    is by default.
+     */
+    public void setOfferBinary(boolean offerBinary) {
+        this.offerBinary = offerBinary;
+    }
+
+    /**
+     * Plays games against the AI service and prints the progress.
+     *
+     * @param games the number of games to play.
+     * @param concurrency the number of games played at once.
+     * @param out the stream progress is printed to.
+     */
+    public void run(int games, int concurrency, PrintStream out) {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int game = 0; game < games; ++game) {
+            final int gameId = game;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    play(gameId);
+                    return null;
+                }
+            }));
+        }
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < futures.size(); ++i) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                failedGames.incrementAndGet();
+                out.println("Game " + i + " failed: " + e.getCause());
+            }
+            int played = i + 1;
+            if (played % Math.max(games / 10, 1) == 0 || played == games) {
+                long elapsed = Math.max(System.currentTimeMillis() - startTime, 1);
+                out.printf("Played %d of %d games in %.1f s, %.2f games/s, %.1f turns/s.%n",
+                           played, games, elapsed / 1000.0, played * 1000.0 / elapsed,
+                           turns.get() * 1000.0 / elapsed);
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Prints the totals of the games played.
+     *
+     * @param games the number of games played.
+     * @param millis the time they took, in milliseconds.
+     * @param out the stream to print to.
+     */
+    public void report(int games, long millis, PrintStream out) {
+        double seconds = Math.max(millis, 1) / 1000.0;
+        out.printf("%d games in %.1f s: %.2f games/s, %.1f turns/s, %d failed, Mr X won %d%n",
+                   games, seconds, games / seconds, turns.get() / seconds,
+                   failedGames.get(), mrXWins.get());
+        out.printf("NOTIFY_TURN to MOVE over %d turns: %s, mean %.1f ms%n",
+                   latency.getCount(), latency.summary(), latency.getMean() / 1000);
+        out.printf("%d timeouts (%d ms timer), %d invalid moves, %d messages that could not be read%n",
+                   timeouts.get(), moveTimer, invalidMoves.get(), badMessages.get());
+        out.printf("%d of %d games in binary, %.0f bytes on the wire per turn%n",
+                   binaryGames.get(), games, (double) bytes.get() / Math.max(turns.get(), 1));
+    }
+
+    /**
+     * Plays one game against the AI service.
+     *
+     * @param gameId the id of the game.
+     * @throws IOException if the connection fails or the AI does not join.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    void play(int gameId) throws IOException, InterruptedException {
+        Random random = new Random(SEED + gameId);
+        final WebSocketConnection connection = new WebSocketConnection(host, port);
+        final BlockingQueue<Map<String, Object>> inbox = new LinkedBlockingQueue<Map<String, Object>>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read(connection, inbox);
+            }
+        }, "load-reader-" + gameId);
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            Map<String, Object> registered = message("REGISTERED", gameId);
+            registered.put("colours", Arrays.asList(Colour.Black));
+            registered.put("host", "localhost");
+            registered.put("port", 0);
+            if (offerBinary)
+                registered.put("encodings", Arrays.asList(WireCodec.ENCODING, WireCodec.JSON));
+            connection.send(JsonCodec.encode(registered));
+            Map<String, Object> join = await(inbox, "JOIN", null, JOIN_TIMEOUT);
+            if (join == null)
+                throw new IOException("The AI did not join game " + gameId);
+            boolean binary = offerBinary && WireCodec.ENCODING.equals(join.get("encoding"));
+            if (binary)
+                binaryGames.incrementAndGet();
+
+            ScotlandYard model = new ScotlandYard(DETECTIVES, OpeningBookBuilder.rounds(), graph,
+                                                  new ScotlandYardMapQueue<Integer, Token>(), gameId);
+            Colour[] colours = Colour.values();
+            List<Integer> starts = new ArrayList<Integer>();
+            for (int location : OpeningBookBuilder.DETECTIVE_LOCATIONS) {
+                starts.add(location);
+            }
+            Collections.shuffle(starts, random);
+            Map<String, Object> locations = new LinkedHashMap<String, Object>();
+            Map<String, Object> tickets = new LinkedHashMap<String, Object>();
+            for (int i = 0; i <= DETECTIVES; ++i) {
+                int location = (i == 0)
+                    ? OpeningBookBuilder.MRX_LOCATIONS[random.nextInt(OpeningBookBuilder.MRX_LOCATIONS.length)]
+                    : starts.get(i - 1);
+                Player player = (i == 0)
+                    ? new RemotePlayer(connection, inbox, gameId, binary, random)
+                    : new RandomDetective(random);
+                model.join(player, colours[i], location, OpeningBookBuilder.tickets(colours[i]));
+                locations.put(colours[i].toString(), location);
+                tickets.put(colours[i].toString(), OpeningBookBuilder.tickets(colours[i]));
+            }
+            model.spectate(new Relay(connection, gameId, binary));
+
+            Map<String, Object> ready = message("READY", gameId);
+            ready.put("n_detectives", DETECTIVES);
+            ready.put("rounds", OpeningBookBuilder.rounds());
+            ready.put("colours", model.getPlayers());
+            ready.put("locations", locations);
+            ready.put("tickets", tickets);
+            ready.put("current_round", 0);
+            connection.send(JsonCodec.encode(ready));
+            try {
+                model.startRound();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            Set<Colour> winners = model.getWinningPlayers();
+            if (winners.contains(Colour.Black))
+                mrXWins.incrementAndGet();
+            Map<String, Object> gameOver = message("GAME_OVER", gameId);
+            gameOver.put("winners", winners);
+            connection.send(JsonCodec.encode(gameOver));
+        } finally {
+            connection.close();
+            bytes.addAndGet(connection.getBytesSent() + connection.getBytesReceived());
+        }
+    }
+
+    /**
+     * Reads the messages of the AI into an inbox until the connection closes.
+     * A binary MOVE is put onto the inbox as a map of its type, token and
+     * the move encoded by MoveCodec. A message that cannot be decoded is
+     * counted and skipped; if it was the MOVE of a turn, the turn times out.
+     *
+     * @param connection the connection to the AI.
+     * @param inbox the queue the decoded messages are put onto.
+     */
+    @SuppressWarnings("unchecked")
+    private void read(WebSocketConnection connection, BlockingQueue<Map<String, Object>> inbox) {
+        WireCodec.Message frame = new WireCodec.Message();
+        try {
+            for (Object received = connection.receive(); received != null; received = connection.receive()) {
+                try {
+                    if (received instanceof byte[]) {
+                        WireCodec.decode((byte[]) received, frame);
+                        if (frame.getType() != WireCodec.MOVE)
+                            continue;
+                        Map<String, Object> message = message("MOVE", frame.getGameId());
+                        message.put("token", frame.getToken());
+                        message.put("move", frame.getMove());
+                        inbox.add(message);
+                        continue;
+                    }
+                    Object message = JsonCodec.decode((String) received);
+                    if (!(message instanceof Map))
+                        throw new IllegalArgumentException("Not a message: " + received);
+                    inbox.add((Map<String, Object>) message);
+                } catch (IllegalArgumentException e) {
+                    badMessages.incrementAndGet();
+                    System.out.println("Skipped a message that could not be read: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            // The game closed the connection.
+        }
+    }
+
+    /**
+     * Waits for a message of a type, dropping any other message on the way,
+     * such as the MOVE of a turn that has already timed out.
+     *
+     * @param inbox the messages of the AI.
+     * @param type the type of message to wait for.
+     * @param token the token the message must carry, or null for any.
+     * @param timeout the number of milliseconds to wait.
+     * @return the message, or null if none came in time.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    private static Map<String, Object> await(BlockingQueue<Map<String, Object>> inbox, String type,
+                                             Integer token, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0)
+                return null;
+            Map<String, Object> message = inbox.poll(left, TimeUnit.MILLISECONDS);
+            if (message == null)
+                return null;
+            if (!type.equals(message.get("type")))
+                continue;
+            if (token == null || (message.get("token") instanceof Number
+                                  && ((Number) message.get("token")).intValue() == token))
+                return message;
+        }
+    }
+
+    /**
+     * Starts a message.
+     *
+     * @param type the type of the message.
+     * @param gameId the id of the game.
+     * @return the message, to which the rest of its attributes can be added.
+     */
+    private static Map<String, Object> message(String type, int gameId) {
+        Map<String, Object> message = new LinkedHashMap<String, Object>();
+        message.put("type", type);
+        message.put("game_id", gameId);
+        return message;
+    }
+
+    /**
+     * Adds a move and its type to a message.
+     *
+     * @param message the message.
+     * @param move the move.
+     * @return the message.
+     */
+    private static Map<String, Object> putMove(Map<String, Object> message, Move move) {
+        message.put("move", JsonCodec.encodeMove(move));
+        message.put("move_type", move.getClass().getSimpleName());
+        return message;
+    }
+
+    /**
+     * Mr X, played by the AI service over the connection.
+     */
+    private class RemotePlayer implements Player {
+        private final WebSocketConnection connection;
+        private final BlockingQueue<Map<String, Object>> inbox;
+        private final int gameId;
+        private final boolean binary;
+        private final Random random;
+
+        RemotePlayer(WebSocketConnection connection, BlockingQueue<Map<String, Object>> inbox,
+                     int gameId, boolean binary, Random random) {
+            this.connection = connection;
+            this.inbox = inbox;
+            this.gameId = gameId;
+            this.binary = binary;
+            this.random = random;
+        }
+
+        @Override
+        public void notify(int location, List<Move> moves, Integer token, Receiver receiver) {
+            Map<String, Object> reply;
+            long sent = System.nanoTime();
+            try {
+                if (binary) {
+                    connection.send(notifyTurnFrame(location, moves, token));
+                } else {
+                    connection.send(JsonCodec.encode(notifyTurnMessage(location, moves, token)));
+                }
+                reply = await(inbox, "MOVE", token, moveTimer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                reply = null;
+            }
+            turns.incrementAndGet();
+            Move played = null;
+            if (reply == null) {
+                timeouts.incrementAndGet();
+            } else {
+                latency.recordNanos(System.nanoTime() - sent);
+                played = binary ? findMove(moves, reply) : findJsonMove(moves, reply);
+                if (played == null)
+                    invalidMoves.incrementAndGet();
+            }
+            if (played == null)
+                played = moves.get(random.nextInt(moves.size()));
+            receiver.playMove(played, token);
+        }
+
+        private Map<String, Object> notifyTurnMessage(int location, List<Move> moves, Integer token) {
+            List<Object> validMoves = new ArrayList<Object>();
+            for (Move move : moves) {
+                validMoves.add(putMove(new LinkedHashMap<String, Object>(), move));
+            }
+            Map<String, Object> notifyTurn = message("NOTIFY_TURN", gameId);
+            notifyTurn.put("location", location);
+            notifyTurn.put("timestamp", System.currentTimeMillis());
+            notifyTurn.put("token", token);
+            notifyTurn.put("valid_moves", validMoves);
+            return notifyTurn;
+        }
+
+        private byte[] notifyTurnFrame(int location, List<Move> moves, Integer token) {
+            int[] encoded = new int[moves.size()];
+            for (int i = 0; i < encoded.length; ++i) {
+                encoded[i] = MoveCodec.fromMove(moves.get(i));
+            }
+            return WireCodec.encodeNotifyTurn(gameId, token, location, System.currentTimeMillis(),
+                                              encoded, encoded.length);
+        }
+
+        private Move findMove(List<Move> moves, Map<String, Object> reply) {
+            int chosen = (Integer) reply.get("move");
+            for (Move move : moves) {
+                if (MoveCodec.fromMove(move) == chosen)
+                    return move;
+            }
+            return null;
+        }
+
+        private Move findJsonMove(List<Move> moves, Map<String, Object> reply) {
+            // Both sides go through the codec, so that numbers and key order compare equal.
+            Object chosen = JsonCodec.decode(JsonCodec.encode(reply.get("move")));
+            for (Move move : moves) {
+                if (JsonCodec.decode(JsonCodec.encode(JsonCodec.encodeMove(move))).equals(chosen)
+                    && move.getClass().getSimpleName().equals(reply.get("move_type")))
+                    return move;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A detective playing random moves.
+     */
+    private static class RandomDetective implements Player {
+        private final Random random;
+
+        RandomDetective(Random random) {
+            this.random = random;
+        }
+
+        @Override
+        public void notify(int location, List<Move> moves, Integer token, Receiver receiver) {
+            receiver.playMove(moves.get(random.nextInt(moves.size())), token);
+        }
+    }
+
+    /**
+     * Sends every move played to the AI, as NOTIFY messages.
+     */
+    private static class Relay implements Spectator {
+        private final WebSocketConnection connection;
+        private final int gameId;
+        private final boolean binary;
+
+        Relay(WebSocketConnection connection, int gameId, boolean binary) {
+            this.connection = connection;
+            this.gameId = gameId;
+            this.binary = binary;
+        }
+
+        @Override
+        public void notify(Move move) {
+            try {
+                if (binary) {
+                    connection.send(WireCodec.encodeNotify(gameId, MoveCodec.fromMove(move)));
+                } else {
+                    connection.send(JsonCodec.encode(putMove(message("NOTIFY", gameId), move)));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Runs a load test and prints the totals.
+     *
+     * @param args [host:]port, then optionally the number of games, the
+     *             number played at once, the move timer in milliseconds
+     *             and json, to play in JSON only.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java player.LoadGenerator [host:]port [games [concurrency [moveTimer [json]]]]");
+            return;
+        }
+        String host = "localhost";
+        String address = args[0];
+        if (address.indexOf(':') >= 0) {
+            host = address.substring(0, address.indexOf(':'));
+            address = address.substring(address.indexOf(':') + 1);
+        }
+        int port = Integer.parseInt(address);
+        int games = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_GAMES;
+        int concurrency = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_CONCURRENCY;
+        long moveTimer = (args.length > 3) ? Long.parseLong(args[3]) : DEFAULT_MOVE_TIMER;
+        LoadGenerator generator = new LoadGenerator(host, port, "graph.txt", moveTimer);
+        generator.setOfferBinary(!(args.length > 4 && args[4].equals(WireCodec.JSON)));
+        long start = System.currentTimeMillis();
+        generator.run(games, concurrency, System.out);
+        generator.report(games, System.currentTimeMillis() - start, System.out);
+    }
+}
@@ -0,0 +1,394 @@
+package player;
+
+import scotlandyard.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Monte Carlo Tree Search for Mr X's move, as an alternative to the
+ * minimax of the Simulator. Each playout walks down the tree choosing moves
+ * with UCT, adds one new node, then plays the game on with guided random
+ * moves and scores the result for Mr X between 0 and 1. Mr X picks the
+ * children that are best for him, the detectives the ones that are worst.
+ * <p>
+ * With more than one thread, every thread plays out on its own copy of the
+ * Simulator and grows its own tree below the root moves. As in the minimax,
+ * the copies are made for each search and dropped at its end, so a game
+ * holds none between its turns. The visit counts
+ * and values of the root moves are shared, so the threads spread their
+ * playouts over the root moves together. The move played is the root move
+ * with the most visits.
+ * <p>
+ * The playouts run in slices of SLICE_MILLIS, after which every thread
+ * hands its pool thread back and the slices are submitted again, keeping
+ * their trees, so that a pool shared by many games also runs the tasks of
+ * the other games' searches until the deadline.
+ */
+public class MonteCarloSearch {
+    /** The exploration constant of UCT. */
+    public final static double EXPLORATION = 1.4;
+    /** The number of moves a playout may go past the tree. */
+    public final static int PLAYOUT_PLIES = 30;
+    /** The maximum depth of the tree. */
+    public final static int TREE_PLIES = 30;
+    /** The milliseconds a thread plays out for before giving its pool thread back. */
+    public final static long SLICE_MILLIS = 10;
+
+    private final static int MAX_PLIES = TREE_PLIES + PLAYOUT_PLIES + 1;
+    private final static int TREE_LEVEL = 0;
+    private final static int PLAYOUT_LEVEL = 1;
+    private final static long VALUE_SCALE = 1000000;
+
+    private final Simulator master;
+    private long playouts;
+
+    /**
+     * Constructs a new MonteCarloSearch over a Simulator.
+     *
+     * @param master the simulator holding the current game state.
+     */
+    public MonteCarloSearch(Simulator master) {
+        this.master = master;
+    }
+
+    /**
+     * Searches for Mr X's best move until the deadline passes or the given
+     * number of playouts have been run.
+     *
+     * @param pool the pool to run the playouts on, or null to run them on this thread.
+     * @param location the location of Mr X.
+     * @param deadline the time, in milliseconds, by which the search must stop.
+     * @param maxPlayouts the number of playouts to run, or 0 for no limit.
+     * @return the root move with the most visits, or MoveCodec.NO_MOVE if
+     *         Mr X cannot move.
+     */
+    public int search(ForkJoinPool pool, int location, long deadline, long maxPlayouts) {
+        master.placeMrX(location, master.mrXPossibleLocations);
+        int[] generated = master.generateMoves(TREE_LEVEL, master.mrXPossibleLocations);
+        int[] rootMoves = new int[generated[0]];
+        System.arraycopy(generated, 1, rootMoves, 0, rootMoves.length);
+        playouts = 0;
+        if (rootMoves.length == 0)
+            return MoveCodec.NO_MOVE;
+        if (rootMoves.length == 1)
+            return rootMoves[0];
+        int threads = (pool == null) ? 1 : pool.getParallelism();
+        RootStatistics root = new RootStatistics(rootMoves, deadline, maxPlayouts);
+        PlayoutTask[] tasks = new PlayoutTask[threads];
+        for (int i = 0; i < threads; ++i) {
+            Simulator worker = master;
+            if (i > 0) {
+                worker = master.copy();
+                worker.syncFrom(master);
+            }
+            tasks[i] = new PlayoutTask(worker, root, i);
+        }
+        while (!root.stopped) {
+            if (pool == null) {
+                tasks[0].compute();
+            } else {
+                pool.invoke(new WorkersTask(tasks));
+                for (PlayoutTask task : tasks) {
+                    task.reinitialize();
+                }
+            }
+        }
+        // Nothing keeps the tasks, and so the worker copies, past this search.
+        playouts = root.total.get();
+        int best = 0;
+        for (int i = 1; i < rootMoves.length; ++i) {
+            if (root.visits.get(i) > root.visits.get(best))
+                best = i;
+        }
+        return rootMoves[best];
+    }
+
+    /**
+     * Returns the number of playouts run by the last search.
+     *
+     * @return the number of playouts.
+     */
+    public long getPlayoutCount() {
+        return playouts;
+    }
+
+    /**
+     * The statistics of the root moves, shared between the threads.
+     */
+    private static class RootStatistics {
+        final int[] moves;
+        final AtomicIntegerArray visits;
+        final AtomicLongArray values;
+        final AtomicLong total;
+        final long deadline;
+        final long maxPlayouts;
+        volatile boolean stopped;
+
+        RootStatistics(int[] moves, long deadline, long maxPlayouts) {
+            this.moves = moves;
+            this.visits = new AtomicIntegerArray(moves.length);
+            this.values = new AtomicLongArray(moves.length);
+            this.total = new AtomicLong();
+            this.deadline = deadline;
+            this.maxPlayouts = maxPlayouts;
+        }
+
+        /**
+         * Chooses the root move to play out next with UCT. Unvisited moves
+         * are tried first.
+         *
+         * @return the index of the chosen move.
+         */
+        int select() {
+            int best = 0;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            double logTotal = Math.log(Math.max(1, total.get()));
+            for (int i = 0; i < moves.length; ++i) {
+                int n = visits.get(i);
+                if (n == 0)
+                    return i;
+                double score = values.get(i) / (double) (VALUE_SCALE * n)
+                             + EXPLORATION * Math.sqrt(logTotal / n);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * A node of a thread's tree: the position reached after a move.
+     */
+    private static class TreeNode {
+        final int move;
+        int[] moves;
+        TreeNode[] children;
+        int expanded;
+        int visits;
+        double value;
+
+        TreeNode(int move) {
+            this.move = move;
+        }
+    }
+
+    /**
+     * Runs the playout tasks of every thread.
+     */
+    private static class WorkersTask extends RecursiveAction {
+        private final PlayoutTask[] tasks;
+
+        WorkersTask(PlayoutTask[] tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Runs playouts on one Simulator for a slice of time or until the search
+     * is stopped. The tree grown is kept for the next slice.
+     */
+    private static class PlayoutTask extends RecursiveAction {
+        private final Simulator simulator;
+        private final RootStatistics root;
+        private final TreeNode[] rootChildren;
+        private final Random random;
+        private final BeliefSet[] beliefs;
+        private final int[] playedMoves;
+        private final int[] previousLocations;
+        private int ply;
+
+        PlayoutTask(Simulator simulator, RootStatistics root, int seed) {
+            this.simulator = simulator;
+            this.root = root;
+            this.rootChildren = new TreeNode[root.moves.length];
+            this.random = new Random(seed);
+            this.beliefs = new BeliefSet[MAX_PLIES + 1];
+            for (int i = 0; i <= MAX_PLIES; ++i) {
+                beliefs[i] = new BeliefSet();
+            }
+            this.playedMoves = new int[MAX_PLIES];
+            this.previousLocations = new int[MAX_PLIES];
+        }
+
+        @Override
+        protected void compute() {
+            beliefs[0].copyFrom(simulator.mrXPossibleLocations);
+            long sliceEnd = System.currentTimeMillis() + SLICE_MILLIS;
+            while (!root.stopped && System.currentTimeMillis() < sliceEnd) {
+                int i = root.select();
+                // The visit is counted before the playout, so that other
+                // threads are steered to other moves in the meantime.
+                root.visits.incrementAndGet(i);
+                if (rootChildren[i] == null) {
+                    rootChildren[i] = new TreeNode(root.moves[i]);
+                }
+                ply = 0;
+                play(root.moves[i]);
+                double value = descend(rootChildren[i]);
+                while (ply > 0) {
+                    undo();
+                }
+                root.values.addAndGet(i, (long) (value * VALUE_SCALE));
+                long total = root.total.incrementAndGet();
+                if ((root.maxPlayouts > 0 && total >= root.maxPlayouts)
+                    || System.currentTimeMillis() >= root.deadline) {
+                    root.stopped = true;
+                }
+            }
+        }
+
+        /**
+         * Walks down the tree from a node, expands one new node and plays
+         * out from it. The moves played are left for compute() to undo.
+         *
+         * @param node the node of the current position.
+         * @return the value of the playout for Mr X.
+         */
+        private double descend(TreeNode node) {
+            double value;
+            if (simulator.isMrXCaught() || simulator.isLastRound() || ply >= TREE_PLIES) {
+                value = playout();
+            } else {
+                if (node.moves == null) {
+                    int[] generated = simulator.generateMoves(TREE_LEVEL, beliefs[ply]);
+                    node.moves = new int[generated[0]];
+                    System.arraycopy(generated, 1, node.moves, 0, node.moves.length);
+                    node.children = new TreeNode[node.moves.length];
+                }
+                if (node.moves.length == 0) {
+                    // Mr X has nowhere to go, which loses the game.
+                    value = 0;
+                } else if (node.expanded < node.moves.length) {
+                    TreeNode child = new TreeNode(node.moves[node.expanded]);
+                    node.children[node.expanded++] = child;
+                    play(child.move);
+                    value = playout();
+                    child.visits++;
+                    child.value += value;
+                } else {
+                    TreeNode child = selectChild(node, simulator.getCurrentColour() == Colour.Black);
+                    play(child.move);
+                    value = descend(child);
+                }
+            }
+            node.visits++;
+            node.value += value;
+            return value;
+        }
+
+        /**
+         * Chooses the child to walk down to with UCT.
+         *
+         * @param node a fully expanded node.
+         * @param mrX true if Mr X is to move and false if a detective is.
+         * @return the chosen child.
+         */
+        private TreeNode selectChild(TreeNode node, boolean mrX) {
+            TreeNode best = node.children[0];
+            double bestScore = Double.NEGATIVE_INFINITY;
+            double logVisits = Math.log(node.visits);
+            for (TreeNode child : node.children) {
+                double mean = child.value / child.visits;
+                double score = (mrX ? mean : 1 - mean) + EXPLORATION * Math.sqrt(logVisits / child.visits);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = child;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Plays the game on from the current position with guided random
+         * moves: of two random moves, the one with the better static score
+         * is played.
+         *
+         * @return the value of the final position for Mr X.
+         */
+        private double playout() {
+            int end = Math.min(ply + PLAYOUT_PLIES, MAX_PLIES);
+            while (ply < end) {
+                if (simulator.isMrXCaught())
+                    return 0;
+                if (simulator.isLastRound())
+                    return 1;
+                boolean mrX = simulator.getCurrentColour() == Colour.Black;
+                int[] moves = simulator.generatePlayoutMoves(PLAYOUT_LEVEL, beliefs[ply]);
+                if (moves[0] == 0)
+                    return 0;
+                int move = moves[1 + random.nextInt(moves[0])];
+                int other = moves[1 + random.nextInt(moves[0])];
+                if (score(other, mrX) > score(move, mrX)) {
+                    move = other;
+                }
+                play(move);
+            }
+            if (simulator.isMrXCaught())
+                return 0;
+            int safety = simulator.nearestDetective(simulator.getMrXLocation());
+            return Math.min(safety, 4) / 8.0 + Math.min(beliefs[ply].size(), 16) / 32.0;
+        }
+
+        /**
+         * Scores a playout move by plain distance: Mr X prefers to end up far
+         * from the nearest detective, a detective close to Mr X.
+         *
+         * @param move an encoded move.
+         * @param mrX true if Mr X is making the move and false otherwise.
+         * @return the score of the move, higher is better for the mover.
+         */
+        private int score(int move, boolean mrX) {
+            if (MoveCodec.isPass(move))
+                return Integer.MIN_VALUE;
+            int destination = destination(move);
+            if (mrX)
+                return simulator.nearestDetective(destination);
+            return -simulator.distance(destination, simulator.getMrXLocation());
+        }
+
+        /**
+         * Returns where the player ends up after a move.
+         *
+         * @param move an encoded single or double move.
+         * @return the destination of the move.
+         */
+        private int destination(int move) {
+            if (MoveCodec.isDouble(move))
+                return MoveCodec.destination(MoveCodec.second(move));
+            return MoveCodec.destination(move);
+        }
+
+        /**
+         * Plays a move of the player to move and remembers it for undo().
+         *
+         * @param move the move to be played.
+         */
+        private void play(int move) {
+            playedMoves[ply] = move;
+            previousLocations[ply] = simulator.getCurrentLocation();
+            beliefs[ply + 1].copyFrom(beliefs[ply]);
+            simulator.playMove(move, beliefs[ply + 1]);
+            ++ply;
+        }
+
+        /**
+         * Takes back the last move played.
+         */
+        private void undo() {
+            --ply;
+            simulator.undoMove(playedMoves[ply], previousLocations[ply]);
+        }
+    }
+}
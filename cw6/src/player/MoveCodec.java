@@ -0,0 +1,279 @@
+package player;
+
+import scotlandyard.*;
+
+import java.util.Arrays;
+
+/**
+ * Encodes moves into ints so that the search can store and compare them
+ * without creating Move objects. A single move takes 14 bits:
+ * <pre>
+ *   bits 11-13  colour of the player, 1 + its index in playerColours
+ *   bits  8-10  ticket used, 1 + its index in ticketType, or 0 for a MovePass
+ *   bits  0-7   destination node
+ * </pre>
+ * A double move holds its first move in bits 14-27 and its second move in
+ * bits 0-13. Decoding a field is a shift and a mask. As the colour is
+ * stored plus one, no move encodes to 0, which stands for no move at all.
+ */
+public class MoveCodec {
+    public final static int TICKET_SHIFT = 8;
+    public final static int COLOUR_SHIFT = 11;
+    public final static int HALF_SHIFT = 14;
+    public final static int DESTINATION_MASK = (1 << TICKET_SHIFT) - 1;
+    public final static int TICKET_MASK = 7 << TICKET_SHIFT;
+    public final static int HALF_MASK = (1 << HALF_SHIFT) - 1;
+    /** Stands for no move, as when a search has found none. */
+    public final static int NO_MOVE = 0;
+
+    private final static Colour[] playerColours = {
+        Colour.Black,
+        Colour.Blue,
+        Colour.Green,
+        Colour.Red,
+        Colour.White,
+        Colour.Yellow
+    };
+    private final static Ticket[] ticketType = {
+        Ticket.Taxi,
+        Ticket.Bus,
+        Ticket.Underground,
+        Ticket.Secret,
+        Ticket.Double
+    };
+    // The indices of the colours and tickets above, by ordinal, or -1.
+    private final static int[] colourIndices = indices(Colour.values().length, playerColours);
+    private final static int[] ticketIndices = indices(Ticket.values().length, ticketType);
+
+    private MoveCodec() {
+    }
+
+    private static int[] indices(int ordinals, Enum<?>[] values) {
+        int[] indices = new int[ordinals];
+        Arrays.fill(indices, -1);
+        for (int i = 0; i < values.length; ++i) {
+            indices[values[i].ordinal()] = i;
+        }
+        return indices;
+    }
+
+    /**
+     * Encodes a single move from its parts.
+     *
+     * @param colour the index of the player's colour.
+     * @param ticket the index of the ticket used.
+     * @param destination the destination of the move.
+     * @return the encoded move.
+     */
+    public static int encode(int colour, int ticket, int destination) {
+        return ((colour + 1) << COLOUR_SHIFT) | ((ticket + 1) << TICKET_SHIFT) | destination;
+    }
+
+    /**
+     * Encodes a double move from its two single moves.
+     *
+     * @param move1 the first encoded single move.
+     * @param move2 the second encoded single move.
+     * @return the encoded double move.
+     */
+    public static int encodeDouble(int move1, int move2) {
+        return (move1 << HALF_SHIFT) | move2;
+    }
+
+    /**
+     * Encodes a pass of a player.
+     *
+     * @param colour the index of the player's colour.
+     * @return the encoded pass.
+     */
+    public static int encodePass(int colour) {
+        return (colour + 1) << COLOUR_SHIFT;
+    }
+
+    /**
+     * Encodes the ticket field of a single move, with the other fields 0.
+     *
+     * @param ticket the index of the ticket.
+     * @return the ticket in the bits of a move.
+     */
+    public static int encodeTicket(int ticket) {
+        return (ticket + 1) << TICKET_SHIFT;
+    }
+
+    /**
+     * Extracts the destination of a single move.
+     *
+     * @param move an encoded single move.
+     * @return the destination of the move.
+     */
+    public static int destination(int move) {
+        return move & DESTINATION_MASK;
+    }
+
+    /**
+     * Extracts the index of the ticket used in a single move.
+     *
+     * @param move an encoded single move.
+     * @return the index of the ticket, or -1 for a pass.
+     */
+    public static int ticket(int move) {
+        return ((move & TICKET_MASK) >>> TICKET_SHIFT) - 1;
+    }
+
+    /**
+     * Extracts the index of the colour of the player making a single move.
+     *
+     * @param move an encoded single move.
+     * @return the index of the colour.
+     */
+    public static int colour(int move) {
+        return ((move & HALF_MASK) >>> COLOUR_SHIFT) - 1;
+    }
+
+    /**
+     * Extracts the first move of a double move.
+     *
+     * @param move an encoded double move.
+     * @return the first single move.
+     */
+    public static int first(int move) {
+        return move >>> HALF_SHIFT;
+    }
+
+    /**
+     * Extracts the second move of a double move.
+     *
+     * @param move an encoded double move.
+     * @return the second single move.
+     */
+    public static int second(int move) {
+        return move & HALF_MASK;
+    }
+
+    /**
+     * Checks if the given move is a MoveDouble.
+     *
+     * @param move an encoded move.
+     * @return true if move is MoveDouble and false otherwise.
+     */
+    public static boolean isDouble(int move) {
+        return move > HALF_MASK;
+    }
+
+    /**
+     * Checks if the given move is a MovePass.
+     *
+     * @param move an encoded move.
+     * @return true if move is MovePass and false otherwise.
+     */
+    public static boolean isPass(int move) {
+        return move <= HALF_MASK && (move & TICKET_MASK) == 0;
+    }
+
+    /**
+     * Checks if the given move is a MoveTicket.
+     *
+     * @param move an encoded move.
+     * @return true if move is MoveTicket and false otherwise.
+     */
+    public static boolean isTicket(int move) {
+        return move <= HALF_MASK && (move & TICKET_MASK) != 0;
+    }
+
+    /**
+     * Converts a Move into an encoded move.
+     *
+     * @param move the move to be converted.
+     * @return the encoded move, or -1 if the move is of an unknown type.
+     */
+    public static int fromMove(Move move) {
+        if (move instanceof MoveTicket) {
+            return fromMoveTicket((MoveTicket) move);
+        } else if (move instanceof MoveDouble) {
+            MoveDouble moveDouble = (MoveDouble) move;
+            return encodeDouble(fromMoveTicket(moveDouble.move1), fromMoveTicket(moveDouble.move2));
+        } else if (move instanceof MovePass) {
+            return encodePass(colourIndex(move.colour));
+        }
+        return -1;
+    }
+
+    /**
+     * Converts a MoveTicket into an encoded move.
+     *
+     * @param move the move to be converted.
+     * @return the encoded move.
+     */
+    public static int fromMoveTicket(MoveTicket move) {
+        return encode(colourIndex(move.colour), ticketIndex(move.ticket), move.target);
+    }
+
+    /**
+     * Converts an encoded move into a Move.
+     *
+     * @param move the encoded move.
+     * @return the decoded Move.
+     */
+    public static Move toMove(int move) {
+        if (isDouble(move)) {
+            MoveTicket move1 = toMoveTicket(first(move));
+            MoveTicket move2 = toMoveTicket(second(move));
+            return MoveDouble.instance(move1.colour, move1, move2);
+        } else if (isPass(move)) {
+            return MovePass.instance(playerColours[colour(move)]);
+        }
+        return toMoveTicket(move);
+    }
+
+    /**
+     * Converts an encoded single move into a MoveTicket.
+     *
+     * @param move the encoded single move.
+     * @return the decoded MoveTicket.
+     */
+    public static MoveTicket toMoveTicket(int move) {
+        return MoveTicket.instance(playerColours[colour(move)],
+                                   ticketType[ticket(move)],
+                                   destination(move));
+    }
+
+    /**
+     * Returns the colour with a given index.
+     *
+     * @param colour the index of the colour.
+     * @return the colour.
+     */
+    public static Colour toColour(int colour) {
+        return playerColours[colour];
+    }
+
+    /**
+     * Returns the ticket with a given index.
+     *
+     * @param ticket the index of the ticket.
+     * @return the ticket.
+     */
+    public static Ticket toTicket(int ticket) {
+        return ticketType[ticket];
+    }
+
+    /**
+     * Returns the index of a colour.
+     *
+     * @param colour the colour to be looked up.
+     * @return the index of the colour.
+     */
+    public static int colourIndex(Colour colour) {
+        return colourIndices[colour.ordinal()];
+    }
+
+    /**
+     * Returns the index of a ticket.
+     *
+     * @param ticket the ticket to be looked up.
+     * @return the index of the ticket.
+     */
+    public static int ticketIndex(Ticket ticket) {
+        return ticketIndices[ticket.ordinal()];
+    }
+}
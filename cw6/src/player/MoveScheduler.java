@@ -0,0 +1,309 @@
+package player;
+
+import scotlandyard.*;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The MoveScheduler runs the searches of AIPlayers on a bounded number of
+ * threads, so that a service asked for many moves at once searches a few
+ * of them at full speed instead of all of them at a fraction of it. Waiting
+ * requests are taken earliest deadline first.
+ * <p>
+ * A request keeps the deadline it was given when its player was notified,
+ * so the time it waits is taken from its search. The searches stop by
+ * themselves at their deadline and always have the move of their last
+ * completed iteration to play, so a request that starts late still gets a
+ * move, from a shallower search: an overloaded service plays worse moves
+ * rather than running out of time.
+ * <p>
+ * The thread that notified the player waits for the move to be sent, so to
+ * the caller a scheduled notify behaves like any other. A local game plays
+ * the next turns from inside the receiver, so a request made from one of
+ * the scheduler's own threads is searched there at once, as the thread
+ * would otherwise wait on itself.
+ * <p>
+ * Threads that no request needs can search in the background, as the
+ * Ponderer does, with a deadline later than that of any request. Background
+ * searches only start when no request is waiting, and a request that finds
+ * every thread busy aborts one of them to take its thread.
+ */
+public class MoveScheduler {
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence;
+    private final AtomicLong scheduled;
+    private final AtomicLong late;
+    private final Queue<BackgroundSearch> background;
+
+    /**
+     * Constructs a new MoveScheduler.
+     *
+     * @param threads the number of searches run at the same time.
+     */
+    public MoveScheduler(int threads) {
+        this.sequence = new AtomicLong();
+        this.scheduled = new AtomicLong();
+        this.late = new AtomicLong();
+        this.background = new ConcurrentLinkedQueue<BackgroundSearch>();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                                               new PriorityBlockingQueue<Runnable>(),
+                                               new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new SchedulerThread(runnable, "move-scheduler-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Searches for a move of a player on one of the scheduler's threads and
+     * waits until it has been sent.
+     *
+     * @param player the player to move.
+     * @param location the location of the player.
+     * @param moves the valid moves of the player.
+     * @param token the token of the current turn.
+     * @param receiver the receiver the move is sent to.
+     * @param deadline the time, in milliseconds, by which the move must be sent.
+     * @throws RuntimeException or Error, whatever the search threw, on the
+     *         calling thread, so that its receiver is not left waiting on a
+     *         move that was never sent.
+     */
+    public void schedule(AIPlayer player, int location, List<Move> moves, Integer token,
+                         Receiver receiver, long deadline) {
+        Request request = new Request(player, location, moves, token, receiver, deadline,
+                                      sequence.getAndIncrement());
+        scheduled.incrementAndGet();
+        Thread current = Thread.currentThread();
+        if (current instanceof SchedulerThread && ((SchedulerThread) current).getScheduler() == this) {
+            request.run();
+        } else {
+            executor.execute(request);
+            // The count is only an estimate, so a background search may be
+            // aborted with a thread about to be free, or kept a little longer.
+            if (executor.getActiveCount() >= executor.getMaximumPoolSize()) {
+                BackgroundSearch search = background.poll();
+                if (search != null) {
+                    search.abort.run();
+                }
+            }
+        }
+        awaitUninterruptibly(request.done);
+        Throwable failure = request.failure;
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    /**
+     * Runs a search in the background, on a thread no request needs. The
+     * search must return soon after abort is run.
+     *
+     * @param search the search.
+     * @param abort what makes the search return.
+     * @return the search, to be stopped when its result is no longer wanted.
+     */
+    public BackgroundSearch runInBackground(Runnable search, Runnable abort) {
+        BackgroundSearch job = new BackgroundSearch(search, abort, sequence.getAndIncrement());
+        executor.execute(job);
+        return job;
+    }
+
+    /**
+     * Returns the number of requests scheduled.
+     *
+     * @return the number of requests.
+     */
+    public long getScheduledCount() {
+        return scheduled.get();
+    }
+
+    /**
+     * Returns the number of requests that only started after their deadline
+     * had passed, and so played the move of the shallowest search.
+     *
+     * @return the number of late requests.
+     */
+    public long getLateCount() {
+        return late.get();
+    }
+
+    /**
+     * Returns the number of requests waiting for a thread.
+     *
+     * @return the length of the queue.
+     */
+    public int getQueueLength() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops the scheduler's threads once the requests already scheduled are done.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for a latch, keeping the interrupt of the current thread for later.
+     *
+     * @param latch the latch.
+     */
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A thread of a scheduler.
+     */
+    private class SchedulerThread extends Thread {
+        SchedulerThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+
+        MoveScheduler getScheduler() {
+            return MoveScheduler.this;
+        }
+    }
+
+    /**
+     * A job of the scheduler, ordered by deadline and then by arrival.
+     */
+    private abstract static class Job implements Runnable, Comparable<Job> {
+        final long deadline;
+        final long order;
+        final CountDownLatch done;
+
+        Job(long deadline, long order) {
+            this.deadline = deadline;
+            this.order = order;
+            this.done = new CountDownLatch(1);
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (deadline != other.deadline)
+                return (deadline < other.deadline) ? -1 : 1;
+            return (order < other.order) ? -1 : (order == other.order) ? 0 : 1;
+        }
+    }
+
+    /**
+     * A request for a move.
+     */
+    private class Request extends Job {
+        final AIPlayer player;
+        final int location;
+        final List<Move> moves;
+        final Integer token;
+        final Receiver receiver;
+        Throwable failure;
+
+        Request(AIPlayer player, int location, List<Move> moves, Integer token,
+                Receiver receiver, long deadline, long order) {
+            super(deadline, order);
+            this.player = player;
+            this.location = location;
+            this.moves = moves;
+            this.token = token;
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (System.currentTimeMillis() >= deadline) {
+                    late.incrementAndGet();
+                }
+                player.play(location, moves, token, receiver, deadline);
+            } catch (Throwable e) {
+                // Errors too, or the thread would die and the caller wait
+                // for a move that was never sent.
+                failure = e;
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * A search run in the background, after every request.
+     */
+    public class BackgroundSearch extends Job {
+        private final Runnable search;
+        private final Runnable abort;
+        private boolean started;
+        private boolean stopped;
+
+        BackgroundSearch(Runnable search, Runnable abort, long order) {
+            super(Long.MAX_VALUE, order);
+            this.search = search;
+            this.abort = abort;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (stopped) {
+                    done.countDown();
+                    return;
+                }
+                started = true;
+            }
+            background.add(this);
+            try {
+                search.run();
+            } finally {
+                background.remove(this);
+                done.countDown();
+            }
+        }
+
+        /**
+         * Stops the search: takes it out of the queue if it has not
+         * started, and otherwise aborts it and waits for it to return.
+         *
+         * @return true if the search ran and false if it never started.
+         */
+        public boolean stop() {
+            synchronized (this) {
+                stopped = true;
+                if (!started) {
+                    executor.remove(this);
+                    return false;
+                }
+            }
+            abort.run();
+            awaitUninterruptibly(done);
+            return true;
+        }
+    }
+}
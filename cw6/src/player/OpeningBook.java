@@ -0,0 +1,201 @@
+package player;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * The OpeningBook holds the best first moves of Mr X, searched offline by the
+ * OpeningBookBuilder, so that a game can start without searching. A position
+ * is looked up by the round, Mr X's location and the set of detective
+ * locations; the colours of the detectives are left out, as they all start
+ * with the same tickets and are interchangeable.
+ * <p>
+ * The book is a single binary file holding an open addressing hash table,
+ * memory-mapped read-only:
+ * <pre>
+ *   header    magic, version, capacity, number of entries (4 ints)
+ *   slots     capacity slots of a key (1 long) and a move in MoveCodec form (1 int);
+ *             a key of 0 marks an empty slot
+ *   checksum  a CRC32 of everything before it (1 long)
+ * </pre>
+ * A key is looked up by linear probing from the slot given by its low bits.
+ */
+public class OpeningBook {
+    public final static String BOOK_FILENAME = "opening-book.bin";
+    /** Returned by lookup() for positions that are not in the book. */
+    public final static int NOT_FOUND = -1;
+
+    private final static int MAGIC = 0x53594F42;
+    private final static int VERSION = 1;
+    private final static int HEADER_BYTES = 16;
+    private final static int SLOT_BYTES = 12;
+
+    private final ByteBuffer buffer;
+    private final int mask;
+
+    /**
+     * Constructs a new OpeningBook over the contents of a book file.
+     *
+     * @param buffer the contents of a valid book.
+     */
+    private OpeningBook(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.mask = buffer.getInt(8) - 1;
+    }
+
+    /**
+     * Loads a book from a file.
+     *
+     * @param filename the name of the book file.
+     * @return the book, or null if the file is missing or invalid.
+     */
+    public static OpeningBook load(String filename) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(filename, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                if (channel.size() < HEADER_BYTES + 8) return null;
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (!isValid(buffer)) {
+                    System.out.println("Ignoring invalid " + filename + ".");
+                    return null;
+                }
+                return new OpeningBook(buffer);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Computes the key of a position. The detective locations may be given in
+     * any order.
+     *
+     * @param round the current round.
+     * @param mrXLocation the location of Mr X.
+     * @param detectiveLocations the locations of the detectives.
+     * @return the key of the position, never 0.
+     */
+    public static long key(int round, int mrXLocation, int[] detectiveLocations) {
+        long key = Zobrist.round(round) ^ Zobrist.location(0, mrXLocation);
+        for (int location : detectiveLocations) {
+            key ^= Zobrist.location(Zobrist.DETECTIVE, location);
+        }
+        return (key == 0) ? 1 : key;
+    }
+
+    /**
+     * Looks up the move to play in a position.
+     *
+     * @param key the key of the position, as computed by key().
+     * @return the encoded move, or NOT_FOUND if the position is not in the book.
+     */
+    public int lookup(long key) {
+        for (int slot = (int) key & mask; ; slot = (slot + 1) & mask) {
+            int offset = HEADER_BYTES + slot * SLOT_BYTES;
+            long stored = buffer.getLong(offset);
+            if (stored == 0)
+                return NOT_FOUND;
+            if (stored == key)
+                return buffer.getInt(offset + 8);
+        }
+    }
+
+    /**
+     * Returns the number of positions in the book.
+     *
+     * @return the number of positions.
+     */
+    public int size() {
+        return buffer.getInt(12);
+    }
+
+    /**
+     * Builds the contents of a book from a list of positions and moves. The
+     * table is kept at most half full, so a lookup of a missing position ends
+     * quickly.
+     *
+     * @param keys the keys of the positions, as computed by key().
+     * @param moves the encoded move to play in each position.
+     * @param count the number of positions.
+     * @return the contents of the book.
+     */
+    public static ByteBuffer build(long[] keys, int[] moves, int count) {
+        int capacity = Integer.highestOneBit(Math.max(count, 1)) * 2;
+        if (capacity < count * 2) capacity *= 2;
+        int length = HEADER_BYTES + capacity * SLOT_BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(length + 8);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, capacity);
+        buffer.putInt(12, count);
+        for (int i = 0; i < count; ++i) {
+            int slot = (int) keys[i] & (capacity - 1);
+            while (buffer.getLong(HEADER_BYTES + slot * SLOT_BYTES) != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            buffer.putLong(HEADER_BYTES + slot * SLOT_BYTES, keys[i]);
+            buffer.putInt(HEADER_BYTES + slot * SLOT_BYTES + 8, moves[i]);
+        }
+        buffer.putLong(length, checksum(buffer, length));
+        return buffer;
+    }
+
+    /**
+     * Writes the contents of a book to a file.
+     *
+     * @param filename the name of the book file.
+     * @param buffer the contents of the book, as built by build().
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(String filename, ByteBuffer buffer) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "rw");
+        try {
+            file.setLength(0);
+            ByteBuffer contents = buffer.duplicate();
+            contents.position(0);
+            file.getChannel().write(contents);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Checks the header and checksum of a book.
+     *
+     * @param buffer the contents of a book.
+     * @return true if the book can be used and false otherwise.
+     */
+    private static boolean isValid(ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            return false;
+        int capacity = buffer.getInt(8);
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+            return false;
+        int length = HEADER_BYTES + capacity * SLOT_BYTES;
+        if (length + 8 != buffer.capacity())
+            return false;
+        return buffer.getLong(length) == checksum(buffer, length);
+    }
+
+    /**
+     * Computes the checksum of the start of a book.
+     *
+     * @param buffer the contents of a book.
+     * @param length the number of bytes covered by the checksum.
+     * @return the CRC32 of the first length bytes.
+     */
+    private static long checksum(ByteBuffer buffer, int length) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(0);
+        body.limit(length);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,187 @@
+package player;
+
+import scotlandyard.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Builds the OpeningBook offline. Games start with Mr X at one of a small
+ * pool of locations and the detectives at five different locations from
+ * another pool, so every start configuration can be searched in advance. Each
+ * configuration gets a deep parallel search and the best first move of Mr X
+ * is stored in the book. To build the book, run:
+ * <pre>
+ *   java player.OpeningBookBuilder [graphFile [bookFile [moveTime [threads]]]]
+ * </pre>
+ * where moveTime is the number of milliseconds searched per configuration,
+ * 500 by default, and threads defaults to the number of processors. There
+ * are 24024 configurations, so the default takes a little over three
+ * hours, and every 100 milliseconds more adds about 40 minutes.
+ */
+public class OpeningBookBuilder {
+    /** The locations Mr X can start at. */
+    public final static int[] MRX_LOCATIONS = {35, 45, 51, 71, 78, 104, 106, 127, 132, 166, 170, 172};
+    /** The locations the detectives can start at. */
+    public final static int[] DETECTIVE_LOCATIONS = {26, 29, 50, 53, 91, 94, 103, 112, 117, 123, 138, 141, 155, 174};
+    public final static long DEFAULT_MOVE_TIME = 500;
+
+    private final static int DETECTIVES = 5;
+
+    private final String graphFilename;
+    private final ScotlandYardGraph graph;
+    private final List<Boolean> rounds;
+    private final PrecomputedTables tables;
+    private final ForkJoinPool pool;
+    private final long moveTime;
+
+    /**
+     * Constructs a new OpeningBookBuilder.
+     *
+     * @param graphFilename the name of the file containing the graph components.
+     * @param moveTime the number of milliseconds searched per configuration.
+     * @param threads the number of threads each search runs on.
+     * @throws IOException if the graph cannot be read.
+     */
+    public OpeningBookBuilder(String graphFilename, long moveTime, int threads) throws IOException {
+        this.graphFilename = graphFilename;
+        this.graph = new ScotlandYardGraphReader().readGraph(graphFilename);
+        this.rounds = rounds();
+        this.tables = PrecomputedTables.getShared(graphFilename);
+        this.pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+        this.moveTime = moveTime;
+    }
+
+    /**
+     * Searches every start configuration and builds the book.
+     *
+     * @return the contents of the book.
+     */
+    public ByteBuffer build() {
+        List<int[]> placements = new ArrayList<int[]>();
+        choose(new int[DETECTIVES], 0, 0, placements);
+        int total = MRX_LOCATIONS.length * placements.size();
+        long[] keys = new long[total];
+        int[] moves = new int[total];
+        int count = 0;
+        long startTime = System.currentTimeMillis();
+        System.out.printf("Searching %d configurations for %d ms each, about %.1f h.%n",
+                          total, moveTime, total * moveTime / 3600000.0);
+        for (int mrXLocation : MRX_LOCATIONS) {
+            for (int[] detectives : placements) {
+                keys[count] = OpeningBook.key(0, mrXLocation, detectives);
+                moves[count] = search(mrXLocation, detectives);
+                ++count;
+                if (count % 100 == 0 || count == total) {
+                    System.out.println("Searched " + count + " of " + total + " configurations in "
+                                       + (System.currentTimeMillis() - startTime) / 1000 + " s.");
+                }
+            }
+        }
+        return OpeningBook.build(keys, moves, count);
+    }
+
+    /**
+     * Adds every way of choosing the detective locations to a list.
+     *
+     * @param chosen the locations chosen so far.
+     * @param size the number of locations chosen so far.
+     * @param from the index in DETECTIVE_LOCATIONS to choose the next location from.
+     * @param placements the list the complete choices are added to.
+     */
+    private static void choose(int[] chosen, int size, int from, List<int[]> placements) {
+        if (size == chosen.length) {
+            placements.add(chosen.clone());
+            return;
+        }
+        for (int i = from; i <= DETECTIVE_LOCATIONS.length - (chosen.length - size); ++i) {
+            chosen[size] = DETECTIVE_LOCATIONS[i];
+            choose(chosen, size + 1, i + 1, placements);
+        }
+    }
+
+    /**
+     * Searches for Mr X's first move in a start configuration.
+     *
+     * @param mrXLocation the location of Mr X.
+     * @param detectives the locations of the detectives.
+     * @return the encoded best move.
+     */
+    private int search(int mrXLocation, int[] detectives) {
+        ScotlandYard view = new ScotlandYard(DETECTIVES, rounds, graph,
+                                             new ScotlandYardMapQueue<Integer, Token>(), 0);
+        Colour[] colours = Colour.values();
+        view.join(new IdlePlayer(), Colour.Black, mrXLocation, tickets(Colour.Black));
+        for (int i = 1; i <= DETECTIVES; ++i) {
+            view.join(new IdlePlayer(), colours[i], detectives[i - 1], tickets(colours[i]));
+        }
+        Simulator simulator = new Simulator(DETECTIVES, rounds, graph,
+                                            new ScotlandYardMapQueue<Integer, Token>(), 0);
+        simulator.setSimulator(view, graphFilename, tables);
+        simulator.setLocations();
+        long deadline = System.currentTimeMillis() + moveTime;
+        if (pool != null)
+            return simulator.parallelIterativeDeepening(pool, mrXLocation, deadline);
+        return simulator.iterativeDeepening(Colour.Black, mrXLocation, deadline);
+    }
+
+    /**
+     * Returns the rounds of a standard game, as the game's model sets them up
+     * in ScotlandYardGame.getRounds(), which is not visible from here: 24
+     * rounds with Mr X revealed after his moves in rounds 3, 8, 13, 18 and 23.
+     *
+     * @return a list of booleans representing reveal rounds with true.
+     */
+    static List<Boolean> rounds() {
+        return Arrays.asList(false, false, false, true, false,
+                             false, false, false, true, false,
+                             false, false, false, true, false,
+                             false, false, false, true, false,
+                             false, false, false, true);
+    }
+
+    /**
+     * Returns the starting tickets of a player.
+     *
+     * @param colour the colour of the player.
+     * @return a map from each ticket to the number the player starts with.
+     */
+    static Map<Ticket, Integer> tickets(Colour colour) {
+        Map<Ticket, Integer> tickets = new HashMap<Ticket, Integer>();
+        for (int i = 0; i < Simulator.ticketType.length; ++i) {
+            if (colour == Colour.Black) {
+                tickets.put(Simulator.ticketType[i], Simulator.mrXTicketNumbers[i]);
+            } else {
+                tickets.put(Simulator.ticketType[i], Simulator.detectiveTicketNumbers[i]);
+            }
+        }
+        return tickets;
+    }
+
+    /**
+     * A player that is never asked to move, used to fill the seats of the view.
+     */
+    private static class IdlePlayer implements Player {
+        @Override
+        public void notify(int location, List<Move> moves, Integer token, Receiver receiver) {
+        }
+    }
+
+    /**
+     * Builds the book and writes it to a file.
+     *
+     * @param args the graph file, the book file, the milliseconds per configuration
+     *             and the number of threads, all optional.
+     */
+    public static void main(String[] args) throws IOException {
+        String graphFilename = (args.length > 0) ? args[0] : "graph.txt";
+        String bookFilename = (args.length > 1) ? args[1] : OpeningBook.BOOK_FILENAME;
+        long moveTime = (args.length > 2) ? Long.parseLong(args[2]) : DEFAULT_MOVE_TIME;
+        int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        OpeningBookBuilder builder = new OpeningBookBuilder(graphFilename, moveTime, threads);
+        OpeningBook.write(bookFilename, builder.build());
+        System.out.println("Wrote " + bookFilename + ".");
+    }
+}
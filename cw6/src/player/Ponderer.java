@@ -0,0 +1,128 @@
+package player;
+
+import scotlandyard.*;
+
+/**
+ * The Ponderer searches while the detectives are thinking about their moves.
+ * Once Mr X has moved, the position is searched from the detective to move,
+ * on a copy of the simulator that shares its transposition table. The search
+ * runs until the detective's real move arrives, when it is aborted and
+ * started again from the new position.
+ * <p>
+ * The search runs in the background of the MoveScheduler, so it only takes
+ * a thread that no search for a move needs, and gives it back as soon as
+ * one does. Without a scheduler it runs on a single thread shared by every
+ * Ponderer.
+ * <p>
+ * Nothing of the search is kept but the transposition table: when Mr X is
+ * next to move, the positions following the detectives' real replies have
+ * already been searched, and the search for his move finds their scores and
+ * best moves in the table instead of searching them again.
+ */
+public class Ponderer {
+    private final Simulator master;
+    private static MoveScheduler shared;
+    private Simulator simulator;
+    private MoveScheduler scheduler;
+    private MoveScheduler.BackgroundSearch search;
+    private long nodes;
+
+    /**
+     * Constructs a new Ponderer for a Simulator.
+     *
+     * @param master the simulator holding the current game state.
+     */
+    public Ponderer(Simulator master) {
+        this.master = master;
+    }
+
+    /**
+     * Sets the scheduler the searches run in the background of.
+     *
+     * @param scheduler the scheduler, or null to search on the thread shared
+     *                  by the Ponderers without one.
+     */
+    public void setScheduler(MoveScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Returns the scheduler shared by the Ponderers without one, which
+     * searches on a single thread.
+     *
+     * @return the shared scheduler.
+     */
+    private static synchronized MoveScheduler getShared() {
+        if (shared == null) {
+            shared = new MoveScheduler(1);
+        }
+        return shared;
+    }
+
+    /**
+     * Starts searching the current position of the master simulator in the
+     * background. The master only plays the moves it receives, so the
+     * player to move is given here. Does nothing if Mr X is to move or the
+     * game is over.
+     *
+     * @param colour the colour of the player to move.
+     * @param location the location of Mr X.
+     */
+    public void start(Colour colour, int location) {
+        stop();
+        if (colour == Colour.Black || master.roundsLeft() == 0 || master.isMrXCaught())
+            return;
+        if (simulator == null) {
+            simulator = master.copy();
+        }
+        simulator.syncFrom(master);
+        simulator.placeMrX(location, simulator.mrXPossibleLocations);
+        simulator.setCurrentColour(colour);
+        simulator.setAborted(false);
+        final Colour player = colour;
+        final int detective = simulator.getCurrentLocation();
+        MoveScheduler background = (scheduler != null) ? scheduler : getShared();
+        search = background.runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                simulator.iterativeDeepening(player, detective, Long.MAX_VALUE);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                simulator.setAborted(true);
+            }
+        });
+    }
+
+    /**
+     * Aborts the search, or takes it out of the queue if it has not started,
+     * and waits for it to return so that the master simulator and the table
+     * can be used again.
+     */
+    public void stop() {
+        if (search == null)
+            return;
+        if (search.stop()) {
+            nodes += simulator.getNodeCount();
+        }
+        search = null;
+    }
+
+    /**
+     * Returns the number of nodes searched while pondering since the last
+     * call of resetNodeCount().
+     *
+     * @return the number of nodes searched.
+     */
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Resets the number of nodes searched while pondering.
+     */
+    public void resetNodeCount() {
+        nodes = 0;
+    }
+}
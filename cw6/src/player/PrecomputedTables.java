@@ -0,0 +1,351 @@
+package player;
+
+import scotlandyard.*;
+import graph.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The PrecomputedTables hold the tables that every AIPlayer needs but that
+ * never change during a game: the distances between every pair of nodes,
+ * every move Mr X could make from each node, and which nodes only have taxi
+ * links. The tables of a map are kept in a binary bundle of their own which
+ * is generated the first time it is needed, then memory-mapped read-only and
+ * shared by every player in the JVM that plays on the map.
+ * <p>
+ * The bundle is laid out as:
+ * <pre>
+ *   header     magic, version, number of nodes, number of moves (4 ints),
+ *              then the checksum of the graph it was generated from (1 long)
+ *   distances  NODES * NODES bytes, row by row
+ *   offsets    NODES + 1 ints; the moves from node n are moves[offsets[n]..offsets[n + 1])
+ *   moves      the encoded moves, in MoveCodec form
+ *   taxiOnly   NODES bytes, 1 if the node has only taxi links and 0 otherwise
+ *   checksum   a CRC32 of everything before it (1 long)
+ * </pre>
+ * A bundle whose graph checksum is not that of the graph being played on
+ * was generated from another version of the map, and is generated again.
+ */
+public class PrecomputedTables {
+    public final static String BUNDLE_PREFIX = "precomputed-tables-";
+    public final static int NODES = 200;
+
+    private final static int MAGIC = 0x53595054;
+    private final static int VERSION = 2;
+    private final static int GRAPH_CHECKSUM_OFFSET = 16;
+    private final static int HEADER_BYTES = 24;
+    private final static int DISTANCES_OFFSET = HEADER_BYTES;
+    private final static int OFFSETS_OFFSET = DISTANCES_OFFSET + NODES * NODES;
+    private final static int MOVES_OFFSET = OFFSETS_OFFSET + (NODES + 1) * 4;
+
+    private final static Map<String, PrecomputedTables> shared = new HashMap<String, PrecomputedTables>();
+
+    private final ByteBuffer buffer;
+    private final int taxiOffset;
+
+    /**
+     * Constructs a new PrecomputedTables object over a bundle.
+     *
+     * @param buffer the contents of a valid bundle.
+     */
+    private PrecomputedTables(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.taxiOffset = MOVES_OFFSET + buffer.getInt(12) * 4;
+    }
+
+    /**
+     * Returns the tables of a map shared by every player in the JVM, loading
+     * them on the first call for the map. The bundle is memory-mapped if it
+     * exists, is valid and was generated from the same graph, otherwise it is
+     * generated from the graph and written out for the next run.
+     *
+     * @param graphFilename the name of the file containing the graph components.
+     * @return the shared tables.
+     */
+    public static synchronized PrecomputedTables getShared(String graphFilename) {
+        PrecomputedTables tables = shared.get(graphFilename);
+        if (tables == null) {
+            ScotlandYardGraph graph = GameMap.getShared(graphFilename).getGraph();
+            long graphChecksum = checksum(graph);
+            String filename = bundleFilename(graphFilename);
+            ByteBuffer buffer = map(filename, graphChecksum);
+            if (buffer == null) {
+                buffer = generate(graph, graphChecksum);
+                write(filename, buffer);
+            }
+            tables = new PrecomputedTables(buffer);
+            shared.put(graphFilename, tables);
+        }
+        return tables;
+    }
+
+    /**
+     * Returns the name of the bundle of a map, which is BUNDLE_PREFIX
+     * followed by the name of the graph file without its extension.
+     *
+     * @param graphFilename the name of the file containing the graph components.
+     * @return the name of the bundle file.
+     */
+    static String bundleFilename(String graphFilename) {
+        String name = graphFilename.substring(Math.max(graphFilename.lastIndexOf('/'), graphFilename.lastIndexOf('\\')) + 1);
+        if (name.lastIndexOf('.') > 0)
+            name = name.substring(0, name.lastIndexOf('.'));
+        return BUNDLE_PREFIX + name + ".bin";
+    }
+
+    /**
+     * Returns the distance between two nodes.
+     *
+     * @param source the node to start from.
+     * @param target the node to reach.
+     * @return the number of moves needed to go from source to target.
+     */
+    public int distance(int source, int target) {
+        return buffer.get(DISTANCES_OFFSET + source * NODES + target);
+    }
+
+    /**
+     * Returns the index of the first move Mr X could make from a node.
+     *
+     * @param location the node Mr X is at.
+     * @return the index of the first move, for use with move().
+     */
+    public int movesStart(int location) {
+        return buffer.getInt(OFFSETS_OFFSET + location * 4);
+    }
+
+    /**
+     * Returns the index one past the last move Mr X could make from a node.
+     *
+     * @param location the node Mr X is at.
+     * @return the index one past the last move, for use with move().
+     */
+    public int movesEnd(int location) {
+        return buffer.getInt(OFFSETS_OFFSET + (location + 1) * 4);
+    }
+
+    /**
+     * Returns a generated move.
+     *
+     * @param index the index of the move, between movesStart() and movesEnd().
+     * @return the encoded move.
+     */
+    public int move(int index) {
+        return buffer.getInt(MOVES_OFFSET + index * 4);
+    }
+
+    /**
+     * Checks if a node only has taxi links.
+     *
+     * @param location the node to be checked.
+     * @return true if every link from the node is a taxi link and false otherwise.
+     */
+    public boolean isTaxiOnly(int location) {
+        return buffer.get(taxiOffset + location) != 0;
+    }
+
+    /**
+     * Maps a bundle read-only and checks its header and checksums.
+     *
+     * @param filename the name of the bundle file.
+     * @param graphChecksum the checksum of the graph the bundle must be of.
+     * @return the mapped bundle, or null if it is missing, invalid or of
+     *         another graph.
+     */
+    private static ByteBuffer map(String filename, long graphChecksum) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(filename, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                if (channel.size() < MOVES_OFFSET + 8) return null;
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (!isValid(buffer)) {
+                    System.out.println("Ignoring out of date " + filename + ".");
+                    return null;
+                }
+                if (buffer.getLong(GRAPH_CHECKSUM_OFFSET) != graphChecksum) {
+                    System.out.println("Ignoring " + filename + ", generated from another graph.");
+                    return null;
+                }
+                return buffer;
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks the header and checksum of a bundle.
+     *
+     * @param buffer the contents of a bundle.
+     * @return true if the bundle can be used and false otherwise.
+     */
+    private static boolean isValid(ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != NODES)
+            return false;
+        int length = MOVES_OFFSET + buffer.getInt(12) * 4 + NODES;
+        if (length + 8 != buffer.capacity())
+            return false;
+        return buffer.getLong(length) == checksum(buffer, length);
+    }
+
+    /**
+     * Computes the checksum of the start of a bundle.
+     *
+     * @param buffer the contents of a bundle.
+     * @param length the number of bytes covered by the checksum.
+     * @return the CRC32 of the first length bytes.
+     */
+    private static long checksum(ByteBuffer buffer, int length) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(0);
+        body.limit(length);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return crc.getValue();
+    }
+
+    /**
+     * Computes the checksum of a graph from its nodes and links, in the order
+     * the graph gives them.
+     *
+     * @param graph the graph of the map.
+     * @return the CRC32 of the graph.
+     */
+    static long checksum(ScotlandYardGraph graph) {
+        CRC32 crc = new CRC32();
+        ByteBuffer link = ByteBuffer.allocate(12);
+        for (Node<Integer> n : graph.getNodes()) {
+            for (Edge<Integer, Transport> e : graph.getEdgesFrom(n)) {
+                link.clear();
+                link.putInt(n.getIndex()).putInt(e.getTarget().getIndex()).putInt(e.getData().ordinal());
+                crc.update(link.array());
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes a bundle to a file. If the file cannot be written the tables are
+     * still used from memory, they just have to be generated again next time.
+     *
+     * @param filename the name of the bundle file.
+     * @param buffer the contents of the bundle.
+     */
+    private static void write(String filename, ByteBuffer buffer) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(filename, "rw");
+            try {
+                file.setLength(0);
+                ByteBuffer contents = buffer.duplicate();
+                contents.position(0);
+                file.getChannel().write(contents);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Error writing " + filename + ".");
+        }
+    }
+
+    /**
+     * Generates a bundle from the graph.
+     *
+     * @param graph the graph of the map.
+     * @param graphChecksum the checksum of the graph, kept in the header.
+     * @return the contents of the bundle.
+     */
+    private static ByteBuffer generate(ScotlandYardGraph graph, long graphChecksum) {
+        int[][] moves = new int[NODES][];
+        int moveCount = 0;
+        for (int location = 1; location < NODES; ++location) {
+            int[] generated = new int[501];
+            generateMoves(graph, location, generated);
+            moves[location] = generated;
+            moveCount += generated[0];
+        }
+        int length = MOVES_OFFSET + moveCount * 4 + NODES;
+        ByteBuffer buffer = ByteBuffer.allocate(length + 8);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, NODES);
+        buffer.putInt(12, moveCount);
+        buffer.putLong(GRAPH_CHECKSUM_OFFSET, graphChecksum);
+        byte[] distances = new DistanceGenerator(graph).generate()[DistanceGenerator.DETECTIVE];
+        for (int i = 0; i < NODES * NODES; ++i) {
+            buffer.put(DISTANCES_OFFSET + i, distances[i]);
+        }
+        int index = 0;
+        for (int location = 0; location < NODES; ++location) {
+            buffer.putInt(OFFSETS_OFFSET + location * 4, index);
+            if (moves[location] == null) continue;
+            for (int i = 1; i <= moves[location][0]; ++i) {
+                buffer.putInt(MOVES_OFFSET + (index++) * 4, moves[location][i]);
+            }
+        }
+        buffer.putInt(OFFSETS_OFFSET + NODES * 4, index);
+        int taxiOffset = MOVES_OFFSET + moveCount * 4;
+        for (Node<Integer> n : graph.getNodes()) {
+            byte taxiOnly = 1;
+            for (Edge<Integer, Transport> e : graph.getEdgesFrom(n)) {
+                if (e.getData() != Transport.Taxi) {
+                    taxiOnly = 0;
+                }
+            }
+            buffer.put(taxiOffset + n.getIndex(), taxiOnly);
+        }
+        buffer.putLong(length, checksum(buffer, length));
+        return buffer;
+    }
+
+    /**
+     * Generates every single and double move Mr X could make from a location,
+     * ignoring tickets and the detectives.
+     *
+     * @param graph the graph of the map.
+     * @param location the location Mr X is at.
+     * @param generatedMoves the array the moves are added to, with the count in slot 0.
+     */
+    private static void generateMoves(ScotlandYardGraph graph, int location, int[] generatedMoves) {
+        int secret = MoveCodec.ticketIndex(Ticket.Secret);
+        Node<Integer> nodeLocation = graph.getNode(location);
+        for (Edge<Integer, Transport> e : graph.getEdgesFrom(nodeLocation)) {
+            int ticket = MoveCodec.ticketIndex(Ticket.fromTransport(e.getData()));
+            int normalMove = MoveCodec.encode(0, ticket, e.getTarget().getIndex());
+            int secretMove = MoveCodec.encode(0, secret, e.getTarget().getIndex());
+            AIPlayerFactory.addElementToArray(generatedMoves, normalMove);
+            AIPlayerFactory.addElementToArray(generatedMoves, secretMove);
+            generateDoubleMoves(graph, e, normalMove, generatedMoves);
+            generateDoubleMoves(graph, e, secretMove, generatedMoves);
+        }
+    }
+
+    /**
+     * Generates every double move starting with a given single move.
+     *
+     * @param graph the graph of the map.
+     * @param previousEdge the edge used by the first move.
+     * @param movePrevious the encoded first move.
+     * @param generatedMoves the array the moves are added to, with the count in slot 0.
+     */
+    private static void generateDoubleMoves(ScotlandYardGraph graph, Edge<Integer, Transport> previousEdge,
+                                            int movePrevious, int[] generatedMoves) {
+        int secret = MoveCodec.ticketIndex(Ticket.Secret);
+        Node<Integer> nodeLocation = graph.getNode(previousEdge.getTarget().getIndex());
+        for (Edge<Integer, Transport> e : graph.getEdgesFrom(nodeLocation)) {
+            int ticket = MoveCodec.ticketIndex(Ticket.fromTransport(e.getData()));
+            int normalMove = MoveCodec.encode(0, ticket, e.getTarget().getIndex());
+            int secretMove = MoveCodec.encode(0, secret, e.getTarget().getIndex());
+            AIPlayerFactory.addElementToArray(generatedMoves, MoveCodec.encodeDouble(movePrevious, normalMove));
+            AIPlayerFactory.addElementToArray(generatedMoves, MoveCodec.encodeDouble(movePrevious, secretMove));
+        }
+    }
+}
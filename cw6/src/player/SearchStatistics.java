@@ -0,0 +1,282 @@
+package player;
+
+/**
+ * Counts what the minimax of a Simulator does during the search of one move:
+ * for each level of the tree, the nodes visited, the nodes whose moves were
+ * generated, the moves and double moves generated, and the nodes cut off by
+ * alpha-beta or by the transposition table, as well as the time spent
+ * generating moves and scoring leaves.
+ * <p>
+ * The counters are plain fields written by the one thread searching on the
+ * simulator. A Simulator only counts while it has a SearchStatistics set, so
+ * with none the search pays a single null check per node.
+ */
+public class SearchStatistics {
+    private final int levels;
+    private final long[] nodes;
+    private final long[] expanded;
+    private final long[] moves;
+    private final long[] doubleMoves;
+    private final long[] cutoffs;
+    private final long[] tableCutoffs;
+    private long generationNanos;
+    private long evaluationNanos;
+
+    /**
+     * Constructs a new SearchStatistics with every counter at 0.
+     *
+     * @param levels the number of levels of the tree counted.
+     */
+    public SearchStatistics(int levels) {
+        this.levels = levels;
+        this.nodes = new long[levels];
+        this.expanded = new long[levels];
+        this.moves = new long[levels];
+        this.doubleMoves = new long[levels];
+        this.cutoffs = new long[levels];
+        this.tableCutoffs = new long[levels];
+    }
+
+    /**
+     * Counts a node visited.
+     *
+     * @param level the level of the node.
+     */
+    void countNode(int level) {
+        ++nodes[level];
+    }
+
+    /**
+     * Counts the moves generated at a node and the time taken to generate
+     * and order them.
+     *
+     * @param level the level of the node.
+     * @param buffer the move buffer, with the number of moves in slot 0.
+     * @param nanos the nanoseconds spent generating the moves.
+     */
+    void countMoves(int level, int[] buffer, long nanos) {
+        ++expanded[level];
+        moves[level] += buffer[0];
+        for (int i = 1; i <= buffer[0]; ++i) {
+            if (MoveCodec.isDouble(buffer[i]))
+                ++doubleMoves[level];
+        }
+        generationNanos += nanos;
+    }
+
+    /**
+     * Counts a node cut off by alpha-beta.
+     *
+     * @param level the level of the node.
+     */
+    void countCutoff(int level) {
+        ++cutoffs[level];
+    }
+
+    /**
+     * Counts a node whose score was taken from the transposition table.
+     *
+     * @param level the level of the node.
+     */
+    void countTableCutoff(int level) {
+        ++tableCutoffs[level];
+    }
+
+    /**
+     * Counts the time spent scoring a leaf.
+     *
+     * @param nanos the nanoseconds spent scoring the leaf.
+     */
+    void countEvaluation(long nanos) {
+        evaluationNanos += nanos;
+    }
+
+    /**
+     * Adds the counters of another SearchStatistics to these.
+     *
+     * @param other the statistics to be added.
+     */
+    public void add(SearchStatistics other) {
+        for (int i = 0; i < levels; ++i) {
+            nodes[i] += other.nodes[i];
+            expanded[i] += other.expanded[i];
+            moves[i] += other.moves[i];
+            doubleMoves[i] += other.doubleMoves[i];
+            cutoffs[i] += other.cutoffs[i];
+            tableCutoffs[i] += other.tableCutoffs[i];
+        }
+        generationNanos += other.generationNanos;
+        evaluationNanos += other.evaluationNanos;
+    }
+
+    /**
+     * Sets every counter back to 0.
+     */
+    public void reset() {
+        for (int i = 0; i < levels; ++i) {
+            nodes[i] = 0;
+            expanded[i] = 0;
+            moves[i] = 0;
+            doubleMoves[i] = 0;
+            cutoffs[i] = 0;
+            tableCutoffs[i] = 0;
+        }
+        generationNanos = 0;
+        evaluationNanos = 0;
+    }
+
+    /**
+     * Returns the number of levels of the tree counted.
+     *
+     * @return the number of levels.
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * Returns the number of nodes visited at a level.
+     *
+     * @param level the level of the tree.
+     * @return the number of nodes visited.
+     */
+    public long getNodes(int level) {
+        return nodes[level];
+    }
+
+    /**
+     * Returns the number of nodes visited at every level.
+     *
+     * @return the number of nodes visited.
+     */
+    public long getNodes() {
+        return sum(nodes);
+    }
+
+    /**
+     * Returns the number of moves generated at a level.
+     *
+     * @param level the level of the tree.
+     * @return the number of moves generated.
+     */
+    public long getMoves(int level) {
+        return moves[level];
+    }
+
+    /**
+     * Returns the number of nodes whose moves were generated at a level.
+     *
+     * @param level the level of the tree.
+     * @return the number of nodes expanded.
+     */
+    public long getExpanded(int level) {
+        return expanded[level];
+    }
+
+    /**
+     * Returns the number of double moves generated at every level.
+     *
+     * @return the number of double moves generated.
+     */
+    public long getDoubleMoves() {
+        return sum(doubleMoves);
+    }
+
+    /**
+     * Returns the number of nodes cut off by alpha-beta at a level.
+     *
+     * @param level the level of the tree.
+     * @return the number of cutoffs.
+     */
+    public long getCutoffs(int level) {
+        return cutoffs[level];
+    }
+
+    /**
+     * Returns the number of nodes cut off by alpha-beta at every level.
+     *
+     * @return the number of cutoffs.
+     */
+    public long getCutoffs() {
+        return sum(cutoffs);
+    }
+
+    /**
+     * Returns the number of nodes scored from the transposition table at
+     * every level.
+     *
+     * @return the number of table cutoffs.
+     */
+    public long getTableCutoffs() {
+        return sum(tableCutoffs);
+    }
+
+    /**
+     * Returns the average number of moves generated at a node of a level.
+     *
+     * @param level the level of the tree.
+     * @return the branching factor, or 0 if no node was expanded.
+     */
+    public double getBranchingFactor(int level) {
+        return (expanded[level] == 0) ? 0 : (double) moves[level] / expanded[level];
+    }
+
+    /**
+     * Returns the time spent generating and ordering moves.
+     *
+     * @return the time in nanoseconds.
+     */
+    public long getGenerationNanos() {
+        return generationNanos;
+    }
+
+    /**
+     * Returns the time spent scoring leaves.
+     *
+     * @return the time in nanoseconds.
+     */
+    public long getEvaluationNanos() {
+        return evaluationNanos;
+    }
+
+    /**
+     * Returns a one line summary of the counters, for the log.
+     *
+     * @param nanos the time the search took, in nanoseconds.
+     * @return the summary.
+     */
+    public String summary(long nanos) {
+        long total = getNodes();
+        StringBuilder line = new StringBuilder();
+        line.append(total).append(" nodes in ").append(nanos / 1000000).append(" ms (")
+            .append((nanos == 0) ? 0 : total * 1000000000L / nanos).append(" nodes/s), ")
+            .append(getCutoffs()).append(" cutoffs, ")
+            .append(getTableCutoffs()).append(" table cutoffs, ")
+            .append(getDoubleMoves()).append(" double moves, generation ")
+            .append(generationNanos / 1000000).append(" ms, evaluation ")
+            .append(evaluationNanos / 1000000).append(" ms; per level nodes/branching/cutoffs:");
+        for (int i = 0; i < levels; ++i) {
+            // A parallel search plays the root moves itself and counts from level 1.
+            if (nodes[i] == 0)
+                continue;
+            line.append(' ').append(i).append(':').append(nodes[i]).append('/')
+                .append(String.format("%.1f", getBranchingFactor(i))).append('/')
+                .append(cutoffs[i] + tableCutoffs[i]);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Sums an array of counters.
+     *
+     * @param counters the counters, one per level.
+     * @return the sum of the counters.
+     */
+    private static long sum(long[] counters) {
+        long total = 0;
+        for (long counter : counters) {
+            total += counter;
+        }
+        return total;
+    }
+}
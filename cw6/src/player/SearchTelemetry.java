@@ -0,0 +1,133 @@
+package player;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Adds up the SearchStatistics of every move searched by the players of an
+ * AIPlayerFactory and publishes the totals over JMX, under the name
+ * player:type=SearchTelemetry. Players searching at the same time each count
+ * into their own SearchStatistics and only add them here once their move is
+ * found, so the totals are guarded by this object's lock.
+ */
+public class SearchTelemetry implements SearchTelemetryMBean {
+    public final static String OBJECT_NAME = "player:type=SearchTelemetry";
+
+    private final SearchStatistics totals;
+    private long searches;
+    private long searchNanos;
+    private String lastSummary;
+
+    /**
+     * Constructs a new SearchTelemetry with every counter at 0.
+     */
+    public SearchTelemetry() {
+        this.totals = new SearchStatistics(Simulator.MAX_DEPTH + 1);
+        this.lastSummary = "";
+    }
+
+    /**
+     * Registers this object with the platform MBean server. If another
+     * SearchTelemetry is already registered, it is replaced.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            System.out.println("Could not register the search telemetry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the statistics of a move to the totals.
+     *
+     * @param move the statistics of the search of the move.
+     * @param nanos the time the search took, in nanoseconds.
+     * @return the summary line of the move.
+     */
+    public synchronized String record(SearchStatistics move, long nanos) {
+        totals.add(move);
+        ++searches;
+        searchNanos += nanos;
+        lastSummary = move.summary(nanos);
+        return lastSummary;
+    }
+
+    @Override
+    public synchronized long getSearches() {
+        return searches;
+    }
+
+    @Override
+    public synchronized long getNodes() {
+        return totals.getNodes();
+    }
+
+    @Override
+    public synchronized long getNodesPerSecond() {
+        return (searchNanos == 0) ? 0 : totals.getNodes() * 1000000000L / searchNanos;
+    }
+
+    @Override
+    public synchronized long getCutoffs() {
+        return totals.getCutoffs();
+    }
+
+    @Override
+    public synchronized long getTableCutoffs() {
+        return totals.getTableCutoffs();
+    }
+
+    @Override
+    public synchronized long getDoubleMoves() {
+        return totals.getDoubleMoves();
+    }
+
+    @Override
+    public synchronized long getGenerationMillis() {
+        return totals.getGenerationNanos() / 1000000;
+    }
+
+    @Override
+    public synchronized long getEvaluationMillis() {
+        return totals.getEvaluationNanos() / 1000000;
+    }
+
+    @Override
+    public synchronized long[] getNodesPerLevel() {
+        long[] nodes = new long[totals.getLevels()];
+        for (int i = 0; i < nodes.length; ++i) {
+            nodes[i] = totals.getNodes(i);
+        }
+        return nodes;
+    }
+
+    @Override
+    public synchronized double[] getBranchingFactors() {
+        double[] factors = new double[totals.getLevels()];
+        for (int i = 0; i < factors.length; ++i) {
+            factors[i] = totals.getBranchingFactor(i);
+        }
+        return factors;
+    }
+
+    @Override
+    public synchronized String getLastSummary() {
+        return lastSummary;
+    }
+
+    @Override
+    public synchronized void reset() {
+        totals.reset();
+        searches = 0;
+        searchNanos = 0;
+        lastSummary = "";
+    }
+}
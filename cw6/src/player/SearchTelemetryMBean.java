@@ -0,0 +1,89 @@
+package player;
+
+/**
+ * The management interface of SearchTelemetry, through which the search
+ * counters can be read over JMX, e.g. with jconsole.
+ */
+public interface SearchTelemetryMBean {
+    /**
+     * Returns the number of moves searched.
+     *
+     * @return the number of moves searched.
+     */
+    long getSearches();
+
+    /**
+     * Returns the number of nodes visited by every search.
+     *
+     * @return the number of nodes visited.
+     */
+    long getNodes();
+
+    /**
+     * Returns the number of nodes visited per second of searching.
+     *
+     * @return the number of nodes per second.
+     */
+    long getNodesPerSecond();
+
+    /**
+     * Returns the number of nodes cut off by alpha-beta.
+     *
+     * @return the number of cutoffs.
+     */
+    long getCutoffs();
+
+    /**
+     * Returns the number of nodes scored from the transposition table.
+     *
+     * @return the number of table cutoffs.
+     */
+    long getTableCutoffs();
+
+    /**
+     * Returns the number of double moves generated.
+     *
+     * @return the number of double moves generated.
+     */
+    long getDoubleMoves();
+
+    /**
+     * Returns the time spent generating and ordering moves.
+     *
+     * @return the time in milliseconds.
+     */
+    long getGenerationMillis();
+
+    /**
+     * Returns the time spent scoring leaves.
+     *
+     * @return the time in milliseconds.
+     */
+    long getEvaluationMillis();
+
+    /**
+     * Returns the number of nodes visited at each level of the tree.
+     *
+     * @return the number of nodes, indexed by level.
+     */
+    long[] getNodesPerLevel();
+
+    /**
+     * Returns the average number of moves generated at a node of each level.
+     *
+     * @return the branching factors, indexed by level.
+     */
+    double[] getBranchingFactors();
+
+    /**
+     * Returns the summary of the last move searched.
+     *
+     * @return the summary line.
+     */
+    String getLastSummary();
+
+    /**
+     * Sets every counter back to 0.
+     */
+    void reset();
+}
@@ -4,19 +4,75 @@ import scotlandyard.*;
 import graph.*;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Simulator extends ScotlandYard {
     private ScotlandYardView view;
     private String graphFilename;
-    public HashSet<Integer> mrXPossibleLocations;
+    public BeliefSet mrXPossibleLocations;
     private int justUsedDouble;
     private List<Boolean> rounds;
     private int currentRound;
-    private int distances[][];
+    private PrecomputedTables tables;
+    private TicketDistanceOracle oracle;
     private boolean occupiedNodes[];
-	private int[][] generatedMoves;
+    private BeliefSet occupiedSet;
+    private long[][] ticketMasks;
+    private long positionHash;
+    private long symmetricHash;
+    private long[] pieceHashes;
+    private TranspositionTable table;
+    private TranspositionTable.Entry tableEntry;
+    private int maxLevel;
+    private long deadline;
+    private boolean canStop;
+    private boolean stopped;
+    private volatile boolean aborted;
+    private boolean horizonReached;
+    private long nodes;
+    private int[][] pvTable;
+    private int[] pvLength;
+    private int[] principalVariation;
+    private int principalLength;
+    private boolean followPV;
+    private int completedDepth;
+    private int[][] killers;
+    private int[][][] history;
+    private long[][] orderKeys;
+    private int searchCount;
+    private AtomicInteger sharedBound;
+    private Deque<Simulator> idleWorkers;
 	private int[][] movesValid;
-    private int[] onlyTaxiLinks;
+    private byte[][] detectiveRows;
+    private double[] detectiveSums;
+    private int[] mrXDistances;
+    private byte[][][] savedRows;
+    private double[][] savedSums;
+    private TransitionMatrices transitions;
+    private double[] mrXWeights;
+    private long weightsHash;
+    private double[][] weightBuffers;
+    private double[] weightScratch;
+    private double[] halfWeights;
+    private double[] weights;
+    private double weightMass;
+    private double[][] savedWeights;
+    private double[] savedMass;
+    private double[] savedLanding;
+    private int[] landingNodes;
+    private int[][] savedDistances;
+    private int[] lineMoves;
+    private int[] lineOrigins;
+    private int[][] ticketCounts;
+    private PlayerData[] playerData;
+    private SearchStatistics statistics;
+    private int[][] edgeTargets;
+    private Ticket[][] edgeTickets;
+    private int[][] levelScores;
+    private BeliefSet[] levelLocations;
 
     private final static Colour[] playerColours = {
         Colour.Black,
@@ -47,6 +103,21 @@ public class Simulator extends ScotlandYard {
         0,
         0
     };
+    public final static int DEFAULT_LEVEL = 6;
+    public final static int MAX_DEPTH = 19;
+    private final static int DUMMYMOVE = MoveCodec.NO_MOVE;
+    private final static int PV_PRIORITY = 1 << 30;
+    private final static int TABLE_PRIORITY = 1 << 29;
+    private final static int KILLER_PRIORITY = 1 << 28;
+    private final static int MAX_HISTORY = 1 << 22;
+    private final static int TABLE_BITS = 18;
+    // PlayerData keeps locations boxed, so moves reuse one Integer per node.
+    private final static Integer[] boxedLocations = new Integer[BeliefSet.CAPACITY];
+    static {
+        for (int i = 0; i < boxedLocations.length; ++i) {
+            boxedLocations[i] = Integer.valueOf(i);
+        }
+    }
 
     /**
      * Constructs a new Simulator object which extends ScotlandYard.
@@ -66,30 +137,77 @@ public class Simulator extends ScotlandYard {
     }
 
     /**
-     * Initialises the simulator.
+     * Initialises the simulator. The tables derived from the map alone are
+     * taken from the GameMap shared by every simulator of the map.
      *
      * @param view the ScotlandYardView that provides game information.
      * @param graphFilename the name of the file containing the graph components.
-     * @param distances two dimensional array containing distances from each node to every other node on the graph.
-     * @param generatedMoves two dimensional array storing generated moves at each level of the minimax.
-     * @param onlyTaxiLinks an array indexed by graph nodes containing 1 if the node has just taxi links and 0 otherwise.
+     * @param tables the precomputed distances, moves and taxi-only nodes of the map.
      */
     public void setSimulator(ScotlandYardView view,
                              String graphFilename,
-                             int distances[][],
-                             int generatedMoves[][],
-                             int onlyTaxiLinks[]) {
+                             PrecomputedTables tables) {
+        setSimulator(view, graphFilename, tables, new TranspositionTable(TABLE_BITS));
+    }
+
+    /**
+     * Initialises the simulator to search with a given transposition table,
+     * which may be shared with other simulators of the same game.
+     *
+     * @param view the ScotlandYardView that provides game information.
+     * @param graphFilename the name of the file containing the graph components.
+     * @param tables the precomputed distances, moves and taxi-only nodes of the map.
+     * @param table the transposition table to search with.
+     */
+    void setSimulator(ScotlandYardView view,
+                      String graphFilename,
+                      PrecomputedTables tables,
+                      TranspositionTable table) {
         this.view = view;
         this.graphFilename = graphFilename;
 		this.rounds = view.getRounds();
 		this.currentRound = view.getRound();
-        this.mrXPossibleLocations = new HashSet<Integer>();
-        this.distances = distances;
+        this.mrXPossibleLocations = new BeliefSet();
+        this.tables = tables;
+        GameMap map = GameMap.getShared(graphFilename);
+        this.oracle = new TicketDistanceOracle(map.getGenerator());
         this.justUsedDouble = 0;
-        this.generatedMoves = generatedMoves;
         this.occupiedNodes = new boolean[201];
-		this.movesValid = new int[20][500];
-        this.onlyTaxiLinks = onlyTaxiLinks;
+        this.occupiedSet = new BeliefSet();
+        this.ticketMasks = map.getTicketMasks();
+		this.movesValid = new int[MAX_DEPTH + 1][500];
+        this.maxLevel = DEFAULT_LEVEL;
+        this.pvTable = new int[MAX_DEPTH + 1][MAX_DEPTH + 1];
+        this.pvLength = new int[MAX_DEPTH + 1];
+        this.principalVariation = new int[MAX_DEPTH + 1];
+        this.killers = new int[MAX_DEPTH + 1][2];
+        this.history = new int[6][5][BeliefSet.CAPACITY];
+        this.orderKeys = new long[MAX_DEPTH + 1][500];
+        this.detectiveRows = new byte[6][];
+        this.detectiveSums = new double[6];
+        this.mrXDistances = new int[6];
+        this.savedRows = new byte[MAX_DEPTH + 1][6][];
+        this.savedSums = new double[MAX_DEPTH + 1][6];
+        this.transitions = map.getTransitions();
+        this.mrXWeights = new double[TransitionMatrices.NODES];
+        this.weightBuffers = new double[MAX_DEPTH + 2][TransitionMatrices.NODES];
+        this.weightScratch = new double[TransitionMatrices.NODES];
+        this.halfWeights = new double[TransitionMatrices.NODES];
+        this.savedWeights = new double[MAX_DEPTH + 1][];
+        this.savedMass = new double[MAX_DEPTH + 1];
+        this.savedLanding = new double[MAX_DEPTH + 1];
+        this.landingNodes = new int[MAX_DEPTH + 1];
+        this.savedDistances = new int[MAX_DEPTH + 1][6];
+        this.lineMoves = new int[MAX_DEPTH + 1];
+        this.lineOrigins = new int[MAX_DEPTH + 1];
+        this.ticketCounts = new int[6][ticketType.length];
+        this.levelScores = new int[MAX_DEPTH + 1][1];
+        this.levelLocations = new BeliefSet[MAX_DEPTH + 1];
+        for (int i = 0; i <= MAX_DEPTH; ++i) {
+            levelLocations[i] = new BeliefSet();
+        }
+        this.edgeTargets = map.getEdgeTargets();
+        this.edgeTickets = map.getEdgeTickets();
         for (Colour p : playerColours) {
             Map<Ticket, Integer> tickets = new HashMap<Ticket, Integer>();
             for(int i = 0; i < ticketType.length; ++i) {
@@ -98,6 +216,7 @@ public class Simulator extends ScotlandYard {
                 } else {
                     tickets.put(ticketType[i], detectiveTicketNumbers[i]);
                 }
+                ticketCounts[colourIndex(p)][i] = tickets.get(ticketType[i]);
             }
             if (p == Colour.Black) {
                 join(new SimulatedPlayer(), p, 0, tickets);
@@ -105,7 +224,167 @@ public class Simulator extends ScotlandYard {
                 join(new SimulatedPlayer(), p, 0, tickets);
             }
         }
+        this.playerData = new PlayerData[playerColours.length];
+        for (PlayerData p : players) {
+            playerData[colourIndex(p.getColour())] = p;
+        }
         this.currentPlayer = getPlayer(Colour.Black);
+        this.table = table;
+        this.tableEntry = new TranspositionTable.Entry();
+        this.positionHash = computeHash();
+        this.pieceHashes = new long[6];
+        this.symmetricHash = computeSymmetricHash();
+    }
+
+    /**
+     * Computes the hash of the current position from scratch. After this, the
+     * hash is kept up to date incrementally as moves are played and reversed.
+     *
+     * @return the hash of player locations, ticket counts and the round.
+     */
+    private long computeHash() {
+        long hash = Zobrist.round(currentRound);
+        for (PlayerData p : players) {
+            int colour = colourIndex(p.getColour());
+            hash ^= Zobrist.location(colour, p.getLocation());
+            for (int i = 0; i < ticketType.length; ++i) {
+                hash ^= Zobrist.tickets(colour, i, ticketCounts[colour][i]);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Computes the symmetric hash of the current position from scratch. It is
+     * the same as the position hash, except that detectives holding the same
+     * tickets are interchangeable: swapping two of them leaves it unchanged.
+     * The detectives still move in turn order, so it only keys positions
+     * after which none of them moves again.
+     *
+     * @return the hash of the position up to swapping interchangeable detectives.
+     */
+    private long computeSymmetricHash() {
+        long hash = Zobrist.round(currentRound);
+        for (PlayerData p : players) {
+            int colour = colourIndex(p.getColour());
+            int keys = (colour == 0) ? 0 : Zobrist.DETECTIVE;
+            long piece = Zobrist.location(keys, p.getLocation());
+            for (int i = 0; i < ticketType.length; ++i) {
+                piece ^= Zobrist.tickets(keys, i, ticketCounts[colour][i]);
+            }
+            if (colour == 0) {
+                hash ^= piece;
+            } else {
+                pieceHashes[colour] = piece;
+                hash ^= Zobrist.piece(piece);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Updates the symmetric hash after a player's location or tickets change.
+     *
+     * @param colour the index of the player's colour.
+     * @param keys the XOR of the keys of the old and new location or ticket count.
+     */
+    private void updateSymmetricHash(int colour, long keys) {
+        if (colour == 0) {
+            symmetricHash ^= keys;
+        } else {
+            symmetricHash ^= Zobrist.piece(pieceHashes[colour]);
+            pieceHashes[colour] ^= keys;
+            symmetricHash ^= Zobrist.piece(pieceHashes[colour]);
+        }
+    }
+
+    /**
+     * Returns the player of a colour from an array instead of going through
+     * the list of players, as the search does at every move.
+     *
+     * @param colour the colour of the player.
+     * @return the player of the colour.
+     */
+    @Override
+    protected PlayerData getPlayer(Colour colour) {
+        if (playerData == null)
+            return super.getPlayer(colour);
+        return playerData[colourIndex(colour)];
+    }
+
+    /**
+     * Returns the index of a colour in playerColours.
+     *
+     * @param colour the colour to be looked up.
+     * @return the index of the colour.
+     */
+    private int colourIndex(Colour colour) {
+        return MoveCodec.colourIndex(colour);
+    }
+
+    /**
+     * Returns the index of a ticket in ticketType.
+     *
+     * @param ticket the ticket to be looked up.
+     * @return the index of the ticket.
+     */
+    private int ticketIndex(Ticket ticket) {
+        return MoveCodec.ticketIndex(ticket);
+    }
+
+    /**
+     * Moves a player to a location, updating the position hash.
+     *
+     * @param player the player to be moved.
+     * @param location the new location of the player.
+     */
+    private void movePlayer(PlayerData player, int location) {
+        int colour = colourIndex(player.getColour());
+        positionHash ^= Zobrist.location(colour, player.getLocation())
+                      ^ Zobrist.location(colour, location);
+        int keys = (colour == 0) ? 0 : Zobrist.DETECTIVE;
+        updateSymmetricHash(colour, Zobrist.location(keys, player.getLocation())
+                                  ^ Zobrist.location(keys, location));
+        player.setLocation(boxedLocations[location]);
+    }
+
+    /**
+     * Gives a ticket to a player or takes one away, updating the position hash.
+     *
+     * @param player the player whose tickets change.
+     * @param ticket the ticket to be added or removed.
+     * @param add true if the ticket is to be added and false if it is to be removed.
+     */
+    private void changeTicket(PlayerData player, Ticket ticket, boolean add) {
+        int colour = colourIndex(player.getColour());
+        int index = ticketIndex(ticket);
+        int count = ticketCounts[colour][index];
+        positionHash ^= Zobrist.tickets(colour, index, count)
+                      ^ Zobrist.tickets(colour, index, add ? count + 1 : count - 1);
+        int keys = (colour == 0) ? 0 : Zobrist.DETECTIVE;
+        updateSymmetricHash(colour, Zobrist.tickets(keys, index, count)
+                                  ^ Zobrist.tickets(keys, index, add ? count + 1 : count - 1));
+        ticketCounts[colour][index] = add ? count + 1 : count - 1;
+    }
+
+    /**
+     * Sets the current round, updating the position hash.
+     *
+     * @param round the new round.
+     */
+    private void setRound(int round) {
+        positionHash ^= Zobrist.round(currentRound) ^ Zobrist.round(round);
+        symmetricHash ^= Zobrist.round(currentRound) ^ Zobrist.round(round);
+        currentRound = round;
+    }
+
+    /**
+     * Returns the transposition table used by the minimax.
+     *
+     * @return the transposition table.
+     */
+    public TranspositionTable getTable() {
+        return table;
     }
 
     /**
@@ -115,8 +394,24 @@ public class Simulator extends ScotlandYard {
     public void setLocations() {
         for (PlayerData p : players) {
             if (p.getColour() == Colour.Black) continue;
-            p.setLocation(view.getPlayerLocation(p.getColour()));
-            occupiedNodes[view.getPlayerLocation(p.getColour())] = true;
+            movePlayer(p, view.getPlayerLocation(p.getColour()));
+            setOccupied(view.getPlayerLocation(p.getColour()), true);
+        }
+    }
+
+    /**
+     * Marks a node as occupied or free, keeping occupiedNodes and occupiedSet
+     * in step.
+     *
+     * @param node the node to be updated.
+     * @param occupied true if a detective is now at the node and false otherwise.
+     */
+    private void setOccupied(int node, boolean occupied) {
+        occupiedNodes[node] = occupied;
+        if (occupied) {
+            occupiedSet.add(node);
+        } else {
+            occupiedSet.remove(node);
         }
     }
 
@@ -144,116 +439,899 @@ public class Simulator extends ScotlandYard {
     private void reverseTicketMove(int move, int previousLocation) {
 		Ticket ticket = decodeTicket(move);
 		int target = decodeDestination(move);
-        currentPlayer.setLocation(previousLocation);
-        currentPlayer.addTicket(ticket);
-        occupiedNodes[target] = false;
+        movePlayer(currentPlayer, previousLocation);
+        changeTicket(currentPlayer, ticket, true);
+        setOccupied(target, false);
         if (currentPlayer.getColour() == Colour.Black) {
-            --currentRound;
+            setRound(currentRound - 1);
+        } else {
+            changeTicket(getPlayer(Colour.Black), ticket, false);
+            setOccupied(previousLocation, true);
+        }
+    }
+
+    /**
+     * Reverses the game to the state before the given move was played.
+     *
+     * @param move a double move played.
+     * @param previousLocation a location of the player before the move was made.
+     */
+    private void reverseDoubleMove(int move, int previousLocation) {
+		int move1 = MoveCodec.first(move);
+		int move1Target = decodeDestination(move1);
+		int move2 = MoveCodec.second(move);
+        reversePlay(move2, move1Target);
+        reversePlay(move1, previousLocation);
+        changeTicket(getPlayer(Colour.Black), Ticket.Double, true);
+    }
+
+    /**
+     * Reverses the game to the state before the given move was played.
+     *
+     * @param move a move played.
+     * @param previousLocation a location of the player before the move was made.
+     */
+    private void reversePlay(int move, int previousLocation) {
+        if (isMoveTicket(move)) {
+            reverseTicketMove(move, previousLocation);
+        } else if (isMoveDouble(move)) {
+            reverseDoubleMove(move, previousLocation);
+        }
+    }
+
+    /**
+     * Plays a given move and updates mrX's possible locations.
+     *
+     * @param move a move to be played.
+     * @param locations a BeliefSet of mrX's possible locations.
+     */
+    protected void play(int move, BeliefSet locations) {
+        if (isMoveTicket(move)) playTicket(move, locations);
+        else if (isMoveDouble(move)) playDouble(move, locations);
+    }
+
+    /**
+     * Plays a given single move and updates mrX's possible locations.
+     *
+     * @param move a single move to be played.
+     * @param locations a BeliefSet of mrX's possible locations.
+     */
+    protected void playTicket(int move, BeliefSet locations) {
+        updatePossibleLocations(move, locations);
+        Colour colour = decodeColour(move);
+		Ticket ticket = decodeTicket(move);
+		int target = decodeDestination(move);
+		PlayerData player = getPlayer(colour);
+		changeTicket(player, ticket, false);
+        setOccupied(player.getLocation(), false);
+		movePlayer(player, target);
+		if (colour != Colour.Black) {
+			PlayerData mrX = getPlayer(Colour.Black);
+			changeTicket(mrX, ticket, true);
+            setOccupied(target, true);
+		} else {
+			setRound(currentRound + 1);
+		}
+    }
+
+    /**
+     * Plays a given double move and updates mrX's possible locations.
+     *
+     * @param move a double move to be played.
+     * @param locations a BeliefSet of mrX's possible locations.
+     */
+    protected void playDouble(int move, BeliefSet locations) {
+		int move1 = MoveCodec.first(move);
+		int move2 = MoveCodec.second(move);
+		Colour colour = decodeColour(move1);
+		playTicket(move1, locations);
+		playTicket(move2, locations);
+        PlayerData mrX = getPlayer(colour);
+        changeTicket(mrX, Ticket.Double, false);
+    }
+
+    /**
+     * Updates a simulator with the move received from the server.
+     *
+     * @param moveMade a move to be played.
+     */
+    public void receiveMove(Move moveMade) {
+		int move = encodeMove(moveMade);
+        if (isMoveDouble(move)) {
+            justUsedDouble = 2;
         } else {
-            getPlayer(Colour.Black).removeTicket(ticket);
-            occupiedNodes[previousLocation] = true;
+            if (justUsedDouble == 2) {
+                --justUsedDouble;
+                return;
+            } else if (justUsedDouble == 1) {
+                --justUsedDouble;
+                return;
+            }
+        }
+        updateWeights(move);
+        play(move, this.mrXPossibleLocations);
+    }
+
+    /**
+     * Updates the probability of mrX being at each node with a move received
+     * from the server, before it is played.
+     *
+     * @param move the move about to be played.
+     */
+    private void updateWeights(int move) {
+        if (isMovePass(move))
+            return;
+        boolean moveWeights = false;
+        if (decodeColour(isMoveDouble(move) ? MoveCodec.first(move) : move) == Colour.Black) {
+            if (sumWeights(mrXWeights, mrXPossibleLocations) == 0) {
+                setUniformWeights(mrXWeights, mrXPossibleLocations);
+            }
+            advanceWeights(move, mrXWeights, weightScratch);
+            System.arraycopy(weightScratch, 0, mrXWeights, 0, mrXWeights.length);
+            moveWeights = true;
+        } else {
+            mrXWeights[decodeDestination(move)] = 0;
+        }
+        double mass = 0;
+        for (double weight : mrXWeights) {
+            mass += weight;
+        }
+        if (mass > 0) {
+            for (int i = 0; i < mrXWeights.length; ++i) {
+                mrXWeights[i] /= mass;
+            }
+        }
+        // A detective's move only takes its destination out of the weights,
+        // as the same move in the minimax does, and that node out of the
+        // possible locations, which are in the key already.
+        if (moveWeights) {
+            weightsHash = Zobrist.weights(mrXWeights);
         }
     }
 
     /**
-     * Reverses the game to the state before the given move was played.
+     * Moves a distribution over mrX's location on by one of his moves, the
+     * same way updatePossibleLocations() moves his possible locations on:
+     * in a reveal round the distribution collapses onto his location.
+     *
+     * @param move a single or double move of mrX, about to be played.
+     * @param from the distribution before the move.
+     * @param to the array the distribution after the move is written to.
+     */
+    private void advanceWeights(int move, double[] from, double[] to) {
+        if (isMoveDouble(move)) {
+            // The half way distribution gets its own buffer, as weightScratch
+            // may be the one written to, or be needed to propagate in place.
+            advanceWeights(MoveCodec.first(move), currentRound + 1, from, halfWeights);
+            advanceWeights(MoveCodec.second(move), currentRound + 2, halfWeights, to);
+        } else {
+            advanceWeights(move, currentRound + 1, from, to);
+        }
+    }
+
+    /**
+     * Moves a distribution over mrX's location on by a single move.
+     *
+     * @param move a single move of mrX.
+     * @param round the round the move ends in.
+     * @param from the distribution before the move.
+     * @param to the array the distribution after the move is written to; may be from.
+     */
+    private void advanceWeights(int move, int round, double[] from, double[] to) {
+        if (rounds.get(round)) {
+            Arrays.fill(to, 0);
+            to[decodeDestination(move)] = 1;
+        } else if (from == to) {
+            System.arraycopy(from, 0, weightScratch, 0, from.length);
+            transitions.propagate(weightScratch, MoveCodec.ticket(move), occupiedNodes, to);
+        } else {
+            transitions.propagate(from, MoveCodec.ticket(move), occupiedNodes, to);
+        }
+    }
+
+    /**
+     * Sums a distribution over the possible locations of mrX.
+     *
+     * @param weights the distribution, indexed by node.
+     * @param locations a BeliefSet of mrX's possible locations.
+     * @return the total weight of the possible locations.
+     */
+    private static double sumWeights(double[] weights, BeliefSet locations) {
+        double mass = 0;
+        for (int location = locations.nextLocation(0);
+             location >= 0;
+             location = locations.nextLocation(location + 1)) {
+            mass += weights[location];
+        }
+        return mass;
+    }
+
+    /**
+     * Spreads the weight evenly over the possible locations of mrX.
+     *
+     * @param weights the array the distribution is written to.
+     * @param locations a BeliefSet of mrX's possible locations.
+     */
+    private static void setUniformWeights(double[] weights, BeliefSet locations) {
+        Arrays.fill(weights, 0);
+        for (int location = locations.nextLocation(0);
+             location >= 0;
+             location = locations.nextLocation(location + 1)) {
+            weights[location] = 1;
+        }
+    }
+
+    /**
+     * Searches for the best move with an iterative deepening minimax. The
+     * search goes one level deeper on each iteration, ordering the principal
+     * variation of the previous iteration first, until the deadline passes.
+     * The first iteration is always completed, so a move is always found.
+     *
+     * @param player a colour of the player for whom the move is searched.
+     * @param location a location of the player.
+     * @param deadline the time, in milliseconds, by which the search must stop.
+     * @return the best move of the last completed iteration.
+     */
+    public int iterativeDeepening(Colour player, int location, long deadline) {
+        this.deadline = deadline;
+        this.stopped = false;
+        this.principalLength = 0;
+        this.completedDepth = 0;
+        this.nodes = 0;
+        resetOrdering();
+        int bestMove = DUMMYMOVE;
+        for (int depth = 1; depth <= MAX_DEPTH; ++depth) {
+            int[] currentConfigurationScore = new int[1];
+            /* We set these values because the first ply is a special case where
+             * you should NOT be allowed to prune. Therefore, you can only prune
+             * after this first ply.
+             */
+            int bestScore;
+            if (player == Colour.Black)
+                bestScore = Integer.MAX_VALUE;
+            else
+                bestScore = Integer.MIN_VALUE;
+            maxLevel = depth;
+            canStop = depth > 1;
+            horizonReached = false;
+            followPV = true;
+            int move = minimax(player, location, 0, currentConfigurationScore, bestScore, mrXPossibleLocations);
+            if (stopped)
+                break;
+            bestMove = move;
+            completedDepth = depth;
+            principalLength = pvLength[0];
+            for (int i = 0; i < principalLength; ++i) {
+                principalVariation[i] = pvTable[0][i];
+            }
+            // The whole game tree fits in this depth, so going deeper changes nothing.
+            if (!horizonReached || System.currentTimeMillis() >= deadline)
+                break;
+        }
+        maxLevel = DEFAULT_LEVEL;
+        return bestMove;
+    }
+
+    /**
+     * Runs a single minimax search to a fixed depth with no deadline. Used to
+     * benchmark the search from fixed positions.
+     *
+     * @param player a colour of the player for whom the move is searched.
+     * @param location a location of the player.
+     * @param depth the number of levels to search.
+     * @return the best move found.
+     */
+    int fixedDepthSearch(Colour player, int location, int depth) {
+        this.deadline = Long.MAX_VALUE;
+        this.stopped = false;
+        this.principalLength = 0;
+        this.nodes = 0;
+        int[] currentConfigurationScore = new int[1];
+        int bestScore = (player == Colour.Black) ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        maxLevel = depth;
+        canStop = false;
+        followPV = false;
+        int move = minimax(player, location, 0, currentConfigurationScore, bestScore, mrXPossibleLocations);
+        maxLevel = DEFAULT_LEVEL;
+        return move;
+    }
+
+    /**
+     * Returns the probability of mrX being at each node, as the moves
+     * received so far leave it.
+     *
+     * @return the distribution, indexed by node.
+     */
+    double[] getMrXWeights() {
+        return mrXWeights;
+    }
+
+    /**
+     * Returns the number of nodes visited by the last search.
+     *
+     * @return the number of nodes visited.
+     */
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Returns the depth of the last iteration that was completed.
+     *
+     * @return the depth of the last completed iteration.
+     */
+    public int getLastDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * Puts Mr X at the location a search starts from. In the first round this
+     * is the only location he could be at.
+     *
+     * @param location the location of Mr X.
+     * @param locations a BeliefSet of mrX's possible locations.
+     */
+    void placeMrX(int location, BeliefSet locations) {
+        movePlayer(getPlayer(Colour.Black), location);
+        if (view.getRound() == 0) {
+            locations.add(location);
+        }
+    }
+
+    /**
+     * Returns the colour of the player to move.
+     *
+     * @return the colour of the player to move.
+     */
+    Colour getCurrentColour() {
+        return currentPlayer.getColour();
+    }
+
+    /**
+     * Makes a player the one to move.
+     *
+     * @param colour the colour of the player to move.
+     */
+    void setCurrentColour(Colour colour) {
+        currentPlayer = getPlayer(colour);
+    }
+
+    /**
+     * Returns the location of the player to move.
+     *
+     * @return the location of the player to move.
+     */
+    int getCurrentLocation() {
+        return currentPlayer.getLocation();
+    }
+
+    /**
+     * Returns the location of Mr X in the simulated game.
+     *
+     * @return the location of Mr X.
+     */
+    int getMrXLocation() {
+        return getPlayer(Colour.Black).getLocation();
+    }
+
+    /**
+     * Checks if a detective is standing on Mr X.
+     *
+     * @return true if Mr X has been caught and false otherwise.
+     */
+    boolean isMrXCaught() {
+        return occupiedNodes[getPlayer(Colour.Black).getLocation()];
+    }
+
+    /**
+     * Returns the plain distance between two nodes, ignoring tickets. Cheaper
+     * than the ticket-constrained distances used by the minimax.
+     *
+     * @param source the node to start from.
+     * @param target the node to reach.
+     * @return the number of moves needed to go from source to target.
+     */
+    int distance(int source, int target) {
+        return tables.distance(source, target);
+    }
+
+    /**
+     * Returns the plain distance from the nearest detective to a node,
+     * ignoring tickets.
+     *
+     * @param location the node to measure to.
+     * @return the number of moves the nearest detective needs to reach the node.
+     */
+    int nearestDetective(int location) {
+        int nearest = Integer.MAX_VALUE;
+        for (int i = 1; i < noOfPlayers; ++i) {
+            nearest = Math.min(nearest, tables.distance(getPlayerLocation(playerColours[i]), location));
+        }
+        return nearest;
+    }
+
+    /**
+     * Checks if the simulated game has reached its last round with Mr X to move.
+     *
+     * @return true if Mr X has survived every round and false otherwise.
+     */
+    boolean isLastRound() {
+        return currentRound == rounds.size() - 1 && currentPlayer.getColour() == Colour.Black;
+    }
+
+    /**
+     * Generates the moves of the player to move, the same way the minimax does.
+     *
+     * @param level the row of the move buffer to fill.
+     * @param locations a BeliefSet of mrX's possible locations.
+     * @return the move buffer, with the number of moves in slot 0.
+     */
+    int[] generateMoves(int level, BeliefSet locations) {
+        int xScore = getNodeRank(getPlayer(Colour.Black).getLocation()) * 100;
+        generateMoves(currentPlayer.getColour(), level, xScore, currentPlayer.getLocation(), locations);
+        return movesValid[level];
+    }
+
+    /**
+     * Generates the moves of the player to move for a playout. Double moves
+     * are left out and plain distances are used, to keep playouts fast.
+     *
+     * @param level the row of the move buffer to fill.
+     * @param locations a BeliefSet of mrX's possible locations.
+     * @return the move buffer, with the number of moves in slot 0.
+     */
+    int[] generatePlayoutMoves(int level, BeliefSet locations) {
+        int xScore = nearestDetective(getPlayer(Colour.Black).getLocation()) * 100;
+        validMoves(currentPlayer.getColour(), level, false, xScore, currentPlayer.getLocation(), locations);
+        return movesValid[level];
+    }
+
+    /**
+     * Plays a move of the player to move and passes the turn on.
+     *
+     * @param move the move to be played.
+     * @param locations a BeliefSet of mrX's possible locations, updated by the move.
+     */
+    void playMove(int move, BeliefSet locations) {
+        play(move, locations);
+        nextPlayer();
+    }
+
+    /**
+     * Takes back a move played with playMove().
+     *
+     * @param move the move to be taken back.
+     * @param previousLocation the location of the player before the move.
+     */
+    void undoMove(int move, int previousLocation) {
+        previousPlayer();
+        reversePlay(move, previousLocation);
+    }
+
+    /**
+     * Returns the number of moves Mr X still has to make to win the game.
+     *
+     * @return the number of rounds left.
+     */
+    int roundsLeft() {
+        return rounds.size() - 1 - currentRound;
+    }
+
+    /**
+     * Returns the key of the current position: the position hash with the
+     * player to move mixed in.
+     *
+     * @return the key of the current position.
+     */
+    long positionKey() {
+        return positionHash ^ Zobrist.side(colourIndex(currentPlayer.getColour()));
+    }
+
+    /**
+     * Returns the location of a player in the simulated game.
+     *
+     * @param colour the colour of the player.
+     * @return the location of the player.
+     */
+    int getLocation(Colour colour) {
+        return getPlayer(colour).getLocation();
+    }
+
+    /**
+     * Checks if a detective can move onto a node in one move with the
+     * tickets it has left.
+     *
+     * @param colour the colour of the detective.
+     * @param target the node to reach.
+     * @return true if the detective can reach the node in one move and false otherwise.
+     */
+    boolean canReach(Colour colour, int target) {
+        PlayerData detective = getPlayer(colour);
+        for (int i = 0; i < 3; ++i) {
+            if (hasTickets(detective, ticketType[i])
+                && isNeighbour(ticketMasks[i], detective.getLocation(), target))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if every detective has run out of taxi, bus and underground
+     * tickets, which ends the game in Mr X's favour.
+     *
+     * @return true if no detective can move and false otherwise.
+     */
+    boolean areDetectivesOutOfTickets() {
+        for (int i = 1; i < noOfPlayers; ++i) {
+            PlayerData detective = getPlayer(playerColours[i]);
+            for (int j = 0; j < 3; ++j) {
+                if (hasTickets(detective, ticketType[j]))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generates every valid move of the player to move, without the
+     * heuristics that keep the minimax from trying some secret and double
+     * moves of Mr X. The moves of Mr X come from the precomputed tables.
+     *
+     * @param level the row of the move buffer to fill.
+     * @return the move buffer, with the number of moves in slot 0.
+     */
+    int[] generateExactMoves(int level) {
+        Colour colour = currentPlayer.getColour();
+        if (colour != Colour.Black) {
+            validMoves(colour, level, false, 0, currentPlayer.getLocation(), mrXPossibleLocations);
+            return movesValid[level];
+        }
+        int[] moves = movesValid[level];
+        moves[0] = 0;
+        int[] tickets = ticketCounts[colourIndex(currentPlayer.getColour())];
+        // Both halves of a double move must land within the game.
+        boolean doubles = tickets[ticketIndex(Ticket.Double)] > 0 && currentRound + 2 < rounds.size();
+        int location = currentPlayer.getLocation();
+        for (int i = tables.movesStart(location); i < tables.movesEnd(location); ++i) {
+            int move = tables.move(i);
+            if (isMoveDouble(move)) {
+                int first = MoveCodec.first(move);
+                int second = MoveCodec.second(move);
+                int firstTicket = MoveCodec.ticket(first);
+                int secondTicket = MoveCodec.ticket(second);
+                int needed = (firstTicket == secondTicket) ? 2 : 1;
+                if (!doubles || tickets[firstTicket] < needed || tickets[secondTicket] == 0
+                    || occupiedNodes[decodeDestination(first)] || occupiedNodes[decodeDestination(second)])
+                    continue;
+            } else if (tickets[MoveCodec.ticket(move)] == 0 || occupiedNodes[decodeDestination(move)]) {
+                continue;
+            }
+            AIPlayerFactory.addElementToArray(moves, move);
+        }
+        return moves;
+    }
+
+    /**
+     * Searches for the best move like iterativeDeepening(), but splits the
+     * moves at the root between the threads of a ForkJoinPool. Every task
+     * searches on a copy of the simulator no other task is using, and the
+     * best root score found so far is shared between the threads as the
+     * bound used for pruning at the first ply.
+     *
+     * @param pool the pool whose threads run the search.
+     * @param location a location of Mr X.
+     * @param deadline the time, in milliseconds, by which the search must stop.
+     * @return the best move of the last completed iteration.
+     */
+    public int parallelIterativeDeepening(ForkJoinPool pool, int location, long deadline) {
+        if (idleWorkers == null) {
+            idleWorkers = new ArrayDeque<Simulator>();
+        }
+        this.deadline = deadline;
+        this.stopped = false;
+        this.principalLength = 0;
+        this.completedDepth = 0;
+        this.nodes = 0;
+        this.searchCount++;
+        int bestMove = DUMMYMOVE;
+        movePlayer(getPlayer(Colour.Black), location);
+        if (view.getRound() == 0) {
+            mrXPossibleLocations.add(location);
+        }
+        int xScore = getNodeRank(location) * 100;
+        generateMoves(Colour.Black, 0, xScore, location, mrXPossibleLocations);
+        int[] rootMoves = Arrays.copyOfRange(movesValid[0], 1, movesValid[0][0] + 1);
+        for (int depth = 1; depth <= MAX_DEPTH && rootMoves.length > 0; ++depth) {
+            if (principalLength > 0) {
+                for (int i = 0; i < rootMoves.length; ++i) {
+                    if (rootMoves[i] == principalVariation[0]) {
+                        rootMoves[i] = rootMoves[0];
+                        rootMoves[0] = principalVariation[0];
+                        break;
+                    }
+                }
+            }
+            maxLevel = depth;
+            canStop = depth > 1;
+            RootResult result = new RootResult();
+            RootTask[] tasks = new RootTask[rootMoves.length];
+            for (int i = 0; i < rootMoves.length; ++i) {
+                tasks[i] = new RootTask(this, result, i, rootMoves[i], location);
+            }
+            pool.invoke(new RootSplit(tasks));
+            nodes += result.nodes.get();
+            if (result.stopped)
+                break;
+            bestMove = result.bestMove;
+            completedDepth = depth;
+            principalLength = result.pvLength;
+            for (int i = 0; i < principalLength; ++i) {
+                principalVariation[i] = result.pv[i];
+            }
+            if (!result.horizonReached || System.currentTimeMillis() >= deadline)
+                break;
+        }
+        // Every task has finished, so the workers can go; a game keeps none between its turns.
+        synchronized (idleWorkers) {
+            idleWorkers.clear();
+        }
+        maxLevel = DEFAULT_LEVEL;
+        return bestMove;
+    }
+
+    /**
+     * Creates a copy of this simulator for a worker thread. The copy shares
+     * the read-only tables and the transposition table, so that the workers
+     * of a parallel search see each other's results, but has its own
+     * players and move buffers.
+     *
+     * @return a new simulator.
+     */
+    Simulator copy() {
+        Simulator copy = new Simulator(noOfPlayers - 1, rounds, graph,
+                                       new ScotlandYardMapQueue<Integer, Token>(), gameId);
+        copy.setSimulator(view, graphFilename, tables, table);
+        return copy;
+    }
+
+    /**
+     * Takes a worker copy of this simulator for a task of a parallel search,
+     * reusing one left by an earlier task of the same search if there is
+     * one. The workers belong to this simulator rather than to the threads
+     * of the pool, so a pool shared by many games holds no copies of a game,
+     * and they are dropped at the end of each search, so a game only holds
+     * them while it searches. As a search waits its turn in the
+     * MoveScheduler, at most one worker per thread of the pool is made for
+     * each search the scheduler runs at once.
      *
-     * @param move a double move played.
-     * @param previousLocation a location of the player before the move was made.
+     * @return a worker no other task is using.
      */
-    private void reverseDoubleMove(int move, int previousLocation) {
-		int move1 = move / 100000;
-		int move1Target = decodeDestination(move1);
-		int move2 = move - move1 * 100000;
-        reversePlay(move2, move1Target);
-        reversePlay(move1, previousLocation);
-        getPlayer(Colour.Black).addTicket(Ticket.Double);
+    private Simulator acquireWorker() {
+        synchronized (idleWorkers) {
+            if (!idleWorkers.isEmpty())
+                return idleWorkers.pop();
+        }
+        return copy();
     }
 
     /**
-     * Reverses the game to the state before the given move was played.
+     * Hands a worker back once its task is done.
      *
-     * @param move a move played.
-     * @param previousLocation a location of the player before the move was made.
+     * @param worker the worker taken by acquireWorker().
      */
-    private void reversePlay(int move, int previousLocation) {
-        if (isMoveTicket(move)) {
-            reverseTicketMove(move, previousLocation);
-        } else if (isMoveDouble(move)) {
-            reverseDoubleMove(move, previousLocation);
+    private void releaseWorker(Simulator worker) {
+        synchronized (idleWorkers) {
+            idleWorkers.push(worker);
         }
     }
 
     /**
-     * Plays a given move and updates mrX's possible locations.
+     * Sets the statistics the minimax counts into. Worker copies of a
+     * parallel search count into their own and add them to these after
+     * each root move.
      *
-     * @param move a move to be played.
-     * @param locations a HashSet of mrX's possible locations.
+     * @param statistics the statistics to count into, or null not to count.
      */
-    protected void play(int move, HashSet<Integer> locations) {
-        if (isMoveTicket(move)) playTicket(move, locations);
-        else if (isMoveDouble(move)) playDouble(move, locations);
+    void setStatistics(SearchStatistics statistics) {
+        this.statistics = statistics;
     }
 
     /**
-     * Plays a given single move and updates mrX's possible locations.
+     * Sets whether a search running on another thread should stop as soon
+     * as it can. Unlike the deadline, the flag stays set until it is cleared.
      *
-     * @param move a single move to be played.
-     * @param locations a HashSet of mrX's possible locations.
+     * @param aborted true to stop the search and false to let it run.
      */
-    protected void playTicket(int move, HashSet<Integer> locations) {
-        updatePossibleLocations(move, locations);
-        Colour colour = decodeColour(move);
-		Ticket ticket = decodeTicket(move);
-		int target = decodeDestination(move);
-		PlayerData player = getPlayer(colour);
-		player.removeTicket(ticket);
-        occupiedNodes[player.getLocation()] = false;
-		player.setLocation(target);
-		if (colour != Colour.Black) {
-			PlayerData mrX = getPlayer(Colour.Black);
-			mrX.addTicket(ticket);
-            occupiedNodes[target] = true;
-		} else {
-			currentRound++;
-		}
+    void setAborted(boolean aborted) {
+        this.aborted = aborted;
     }
 
     /**
-     * Plays a given double move and updates mrX's possible locations.
+     * Overwrites the game state of this simulator with the state of another one.
      *
-     * @param move a double move to be played.
-     * @param locations a HashSet of mrX's possible locations.
+     * @param master the simulator to be copied.
      */
-    protected void playDouble(int move, HashSet<Integer> locations) {
-		int move1 = move / 100000;
-		int move2 = move - move1 * 100000;
-		Colour colour = decodeColour(move1);
-		playTicket(move1, locations);
-		playTicket(move2, locations);
-        PlayerData mrX = getPlayer(colour);
-        mrX.removeTicket(Ticket.Double);
+    void syncFrom(Simulator master) {
+        for (PlayerData p : players) {
+            PlayerData m = master.getPlayer(p.getColour());
+            p.setLocation(m.getLocation());
+        }
+        for (int i = 0; i < ticketCounts.length; ++i) {
+            System.arraycopy(master.ticketCounts[i], 0, ticketCounts[i], 0, ticketType.length);
+        }
+        System.arraycopy(master.occupiedNodes, 0, occupiedNodes, 0, occupiedNodes.length);
+        occupiedSet.copyFrom(master.occupiedSet);
+        mrXPossibleLocations.copyFrom(master.mrXPossibleLocations);
+        System.arraycopy(master.mrXWeights, 0, mrXWeights, 0, mrXWeights.length);
+        weightsHash = master.weightsHash;
+        currentRound = master.currentRound;
+        mrXLocation = master.mrXLocation;
+        currentPlayer = getPlayer(master.currentPlayer.getColour());
+        positionHash = master.positionHash;
+        symmetricHash = master.symmetricHash;
+        System.arraycopy(master.pieceHashes, 0, pieceHashes, 0, pieceHashes.length);
+        maxLevel = master.maxLevel;
+        deadline = master.deadline;
+        canStop = master.canStop;
+        stopped = false;
+        horizonReached = false;
+        nodes = 0;
+        if (searchCount != master.searchCount) {
+            searchCount = master.searchCount;
+            resetOrdering();
+        }
+        principalLength = master.principalLength;
+        System.arraycopy(master.principalVariation, 0, principalVariation, 0, principalLength);
+        if (master.statistics == null) {
+            statistics = null;
+        } else if (statistics == null) {
+            statistics = new SearchStatistics(MAX_DEPTH + 1);
+        } else {
+            statistics.reset();
+        }
     }
 
     /**
-     * Updates a simulator with the move received from the server.
+     * Searches a single root move on this simulator, which must be synced
+     * with the root position.
      *
-     * @param moveMade a move to be played.
+     * @param move the root move to be searched.
+     * @param location the location of Mr X at the root.
+     * @param bound the shared best root score, used for pruning at the first ply.
+     * @param score an array in which the score of the move is returned.
      */
-    public void receiveMove(Move moveMade) {
-		int move = encodeMove(moveMade);
-        if (isMoveDouble(move)) {
-            justUsedDouble = 2;
-        } else {
-            if (justUsedDouble == 2) {
-                --justUsedDouble;
+    private void searchRootMove(int move, int location, AtomicInteger bound, int[] score) {
+        sharedBound = bound;
+        followPV = principalLength > 0 && move == principalVariation[0];
+        BeliefSet mrXNewLocations = new BeliefSet();
+        mrXNewLocations.copyFrom(mrXPossibleLocations);
+        resetEvaluation(mrXPossibleLocations);
+        searchPlay(move, 0, mrXNewLocations);
+        nextPlayer();
+        minimax(currentPlayer.getColour(),
+                currentPlayer.getLocation(),
+                1,
+                score,
+                bound.get(),
+                mrXNewLocations);
+        previousPlayer();
+        searchReverse(move, 0, location);
+        sharedBound = null;
+    }
+
+    /**
+     * The best root move found so far by the threads of a parallel search.
+     */
+    private static class RootResult {
+        final AtomicInteger bestScore = new AtomicInteger(Integer.MIN_VALUE);
+        final AtomicLong nodes = new AtomicLong();
+        final int[] pv = new int[MAX_DEPTH + 1];
+        int pvLength = 0;
+        int bestMove = DUMMYMOVE;
+        int bestIndex = Integer.MAX_VALUE;
+        volatile boolean stopped = false;
+        volatile boolean horizonReached = false;
+
+        /**
+         * Offers the score of a root move. Ties are broken in favour of the
+         * move that comes first, as in the sequential search.
+         *
+         * @param worker the simulator that searched the move.
+         * @param index the index of the move among the root moves.
+         * @param move the root move.
+         * @param score the score of the move.
+         */
+        synchronized void offer(Simulator worker, int index, int move, int score) {
+            int best = bestScore.get();
+            int x = score / 1000;
+            int bestX = best / 1000;
+            if (best == Integer.MIN_VALUE || bestX < x || (bestX == x && index < bestIndex)) {
+                bestScore.set(score);
+                bestMove = move;
+                bestIndex = index;
+                pv[0] = move;
+                pvLength = Math.max(worker.pvLength[1], 1);
+                for (int i = 1; i < pvLength; ++i) {
+                    pv[i] = worker.pvTable[1][i];
+                }
+            }
+        }
+    }
+
+    /**
+     * A task searching a single root move on the calling thread's copy of the simulator.
+     */
+    private static class RootTask extends RecursiveAction {
+        private final Simulator master;
+        private final RootResult result;
+        private final int index;
+        private final int move;
+        private final int location;
+
+        RootTask(Simulator master, RootResult result, int index, int move, int location) {
+            this.master = master;
+            this.result = result;
+            this.index = index;
+            this.move = move;
+            this.location = location;
+        }
+
+        @Override
+        protected void compute() {
+            if (result.stopped)
                 return;
-            } else if (justUsedDouble == 1) {
-                --justUsedDouble;
+            // In a pool shared by many games, a task may only start once the deadline has passed.
+            if (master.canStop && System.currentTimeMillis() >= master.deadline) {
+                result.stopped = true;
                 return;
             }
+            Simulator worker = master.acquireWorker();
+            try {
+                searchOn(worker);
+            } finally {
+                master.releaseWorker(worker);
+            }
+        }
+
+        /**
+         * Searches the root move on a worker copy of the master simulator.
+         *
+         * @param worker the worker to search on.
+         */
+        private void searchOn(Simulator worker) {
+            worker.syncFrom(master);
+            int[] score = new int[1];
+            worker.searchRootMove(move, location, result.bestScore, score);
+            result.nodes.addAndGet(worker.nodes);
+            if (master.statistics != null) {
+                synchronized (master.statistics) {
+                    master.statistics.add(worker.statistics);
+                }
+            }
+            if (worker.stopped) {
+                result.stopped = true;
+                return;
+            }
+            if (worker.horizonReached)
+                result.horizonReached = true;
+            result.offer(worker, index, move, score[0]);
+        }
+    }
+
+    /**
+     * A task forking one RootTask for every root move.
+     */
+    private static class RootSplit extends RecursiveAction {
+        private final RootTask[] tasks;
+
+        RootSplit(RootTask[] tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(tasks);
         }
-        play(move, this.mrXPossibleLocations);
     }
 
     /**
@@ -273,70 +1351,114 @@ public class Simulator extends ScotlandYard {
                         int level,
                         int[] currentConfigurationScore,
                         int previousScore,
-                        HashSet<Integer> mrXOldLocations) {
-        int DUMMYMOVE = 11042;
+                        BeliefSet mrXOldLocations) {
+        pvLength[level] = level;
+        ++nodes;
+        if (statistics != null)
+            statistics.countNode(level);
+        if (stopped || (canStop && (nodes & 1023) == 0
+                        && (aborted || System.currentTimeMillis() >= deadline))) {
+            stopped = true;
+            return DUMMYMOVE;
+        }
         if (player == Colour.Black) {
-            getPlayer(Colour.Black).setLocation(location);
-            if (view.getRound() == 0) {
+            movePlayer(getPlayer(Colour.Black), location);
+            if (level == 0 && view.getRound() == 0) {
                 mrXOldLocations.add(location);
             }
         }
-        currentConfigurationScore[0] = getNodeRank(getPlayer(Colour.Black).getLocation()) * 100;
+        if (level == 0) {
+            resetEvaluation(mrXOldLocations);
+        }
+        currentConfigurationScore[0] = nearestDetectiveDistance() * 100;
         /* if the minimum distance to a detective is zero, it means that Mr X
          * was caught so we can end this branch of the minimax
          */
         if (currentConfigurationScore[0] == 0) {
             return DUMMYMOVE;
         }
-        Integer bestScore;
-        if ((level == 6) || (currentRound == 24 && player == Colour.Black)) {
+        int bestScore;
+        if ((level == maxLevel) || (currentRound == rounds.size() - 1 && player == Colour.Black)) {
+            long start = (statistics != null) ? System.nanoTime() : 0;
+            if (level == maxLevel)
+                horizonReached = true;
             currentConfigurationScore[0] += mrXOldLocations.size();
             currentConfigurationScore[0] *= 1000;
-            currentConfigurationScore[0] += getDetectiveScore(mrXOldLocations);
+            currentConfigurationScore[0] += detectiveDistanceSum(mrXOldLocations.size());
+            if (statistics != null)
+                statistics.countEvaluation(System.nanoTime() - start);
             return DUMMYMOVE;
         }
-        int xScore = currentConfigurationScore[0];
-        if (player == Colour.Black) {
-            validMoves(player, level, false, xScore, location, mrXOldLocations);
-            boolean useDoubles = true;
-            for (int i = 1; i <= movesValid[level][0]; ++i) {
-                int destination = decodeDestination(movesValid[level][i]);
-                if (getNodeRank(destination) > 1) {
-                    useDoubles = false;
-                    break;
+        /* A transposition is only trusted below the root, and only if it was
+         * searched at least as deep as we are about to search it. Cut-off
+         * entries are reused when the same cut-off would happen again.
+         */
+        int depth = maxLevel - level;
+        // Detectives that only swapped places with each other give the same
+        // position as long as neither moves again, which from mrX's move is
+        // only the case when his replies are the leaves.
+        long hash = (player == Colour.Black && depth <= 1) ? symmetricHash : positionHash;
+        // The leaves are scored with the weights, so the same position under
+        // the weights of an earlier move of mrX is a different one.
+        long key = hash ^ Zobrist.side(colourIndex(player)) ^ Zobrist.belief(mrXOldLocations) ^ weightsHash;
+        int tableMove = DUMMYMOVE;
+        if (table.probe(key, tableEntry)) {
+            tableMove = tableEntry.getMove();
+            int tableScore = tableEntry.getScore();
+            int bound = tableEntry.getBound();
+            if (level > 0 && tableEntry.getDepth() >= depth) {
+                if (bound == TranspositionTable.EXACT
+                    || (bound == TranspositionTable.LOWER && previousScore != Integer.MAX_VALUE
+                        && getXScore(tableScore) > getXScore(previousScore))
+                    || (bound == TranspositionTable.UPPER && previousScore != Integer.MIN_VALUE
+                        && getDScore(tableScore) < getDScore(previousScore))) {
+                    currentConfigurationScore[0] = tableScore;
+                    horizonReached = true;
+                    if (statistics != null)
+                        statistics.countTableCutoff(level);
+                    return tableMove;
                 }
             }
-            if (hasTickets(getPlayer(player), Ticket.Double) && useDoubles) {
-                validMoves(player, level, true, xScore, location, mrXOldLocations);
-            }
-        } else {
-            validMoves(player, level, false, xScore, location, mrXOldLocations);
         }
+        int xScore = currentConfigurationScore[0];
+        long start = (statistics != null) ? System.nanoTime() : 0;
+        generateMoves(player, level, xScore, location, mrXOldLocations);
+        pruneSymmetricMoves(player, level);
+        orderMoves(player, level, tableMove);
+        if (statistics != null)
+            statistics.countMoves(level, movesValid[level], System.nanoTime() - start);
         int bestMove = DUMMYMOVE;
-        int[] nextScore = new int[1];
+        int[] nextScore = levelScores[level];
         nextScore[0] = 0;
         if (player == Colour.Black)
             bestScore = Integer.MIN_VALUE;
         else
             bestScore = Integer.MAX_VALUE;
-        HashSet<Integer> mrXNewLocations = new HashSet<Integer>();
+        BeliefSet mrXNewLocations = levelLocations[level];
         for (int i = 1; i <= movesValid[level][0]; ++i) {
             if (player == Colour.Black) {
                 if (previousScore != Integer.MAX_VALUE && getXScore(bestScore) > getXScore(previousScore)) {
                     currentConfigurationScore[0] = bestScore;
+                    recordCutoff(player, level, depth, bestMove);
+                    table.store(key, bestScore, depth, TranspositionTable.LOWER, bestMove);
                     return bestMove;
                 }
             } else {
                 if (player == Colour.Blue) { // AND previous player is Black
+                    // In a parallel search the bound at the first ply is shared between threads.
+                    if (level == 1 && sharedBound != null) {
+                        previousScore = sharedBound.get();
+                    }
                     if (previousScore != Integer.MIN_VALUE && getDScore(bestScore) < getDScore(previousScore)) {
                         currentConfigurationScore[0] = bestScore;
+                        recordCutoff(player, level, depth, bestMove);
+                        table.store(key, bestScore, depth, TranspositionTable.UPPER, bestMove);
                         return bestMove;
                     }
                 }
             }
-            mrXNewLocations.clear();
-            mrXNewLocations.addAll(mrXOldLocations);
-            play(movesValid[level][i], mrXNewLocations);
+            mrXNewLocations.copyFrom(mrXOldLocations);
+            searchPlay(movesValid[level][i], level, mrXNewLocations);
             nextPlayer();
             /*************************************/
             minimax(currentPlayer.getColour(),
@@ -346,19 +1468,22 @@ public class Simulator extends ScotlandYard {
                     bestScore,
                     mrXNewLocations);
             /*************************************/
+            followPV = false;
+            boolean improved;
             if (player == Colour.Black) {
-                if (bestScore == Integer.MIN_VALUE || getXScore(bestScore) < getXScore(nextScore[0])) {
-                    bestScore = nextScore[0];
-                    bestMove = movesValid[level][i];
-                }
+                improved = bestScore == Integer.MIN_VALUE || getXScore(bestScore) < getXScore(nextScore[0]);
             } else {
-                if (bestScore == Integer.MAX_VALUE || getDScore(bestScore) > getDScore(nextScore[0])) {
-                    bestScore = nextScore[0];
-                    bestMove = movesValid[level][i];
-                }
+                improved = bestScore == Integer.MAX_VALUE || getDScore(bestScore) > getDScore(nextScore[0]);
+            }
+            if (improved && !stopped) {
+                bestScore = nextScore[0];
+                bestMove = movesValid[level][i];
+                updatePrincipalVariation(level, bestMove);
             }
             previousPlayer();
-            reversePlay(movesValid[level][i], location);
+            searchReverse(movesValid[level][i], level, location);
+            if (stopped)
+                return bestMove;
         }
         if (bestScore == Integer.MIN_VALUE) {
             currentConfigurationScore[0] = 0;
@@ -368,9 +1493,252 @@ public class Simulator extends ScotlandYard {
         } else {
             currentConfigurationScore[0] = bestScore;
         }
+        table.store(key, currentConfigurationScore[0], depth, TranspositionTable.EXACT, bestMove);
         return bestMove;
     }
 
+    /**
+     * Generates the moves to be searched for a given player. Mr X only
+     * considers double moves when every single move lands next to a detective.
+     *
+     * @param player a colour of the player for whom the moves are generated.
+     * @param level a depth level of the minimax.
+     * @param xScore mrX's current score.
+     * @param location a location of the player.
+     * @param mrXOldLocations the possible locations of mrX.
+     */
+    private void generateMoves(Colour player, int level, int xScore, int location, BeliefSet mrXOldLocations) {
+        if (player == Colour.Black) {
+            validMoves(player, level, false, xScore, location, mrXOldLocations);
+            boolean useDoubles = true;
+            for (int i = 1; i <= movesValid[level][0]; ++i) {
+                int destination = decodeDestination(movesValid[level][i]);
+                if (getNodeRank(destination) > 1) {
+                    useDoubles = false;
+                    break;
+                }
+            }
+            // Both halves of a double move must land within the game.
+            if (hasTickets(getPlayer(player), Ticket.Double) && useDoubles && currentRound + 2 < rounds.size()) {
+                validMoves(player, level, true, xScore, location, mrXOldLocations);
+            }
+        } else {
+            validMoves(player, level, false, xScore, location, mrXOldLocations);
+        }
+    }
+
+    /**
+     * Removes the moves of a detective that only swap it with the detective
+     * who moved just before it. If both detectives held the same tickets and
+     * used the same ticket, the line where the first went to X and the second
+     * to Y ends in the same position, up to swapping the two, as the line where
+     * the first went to Y and the second to X. When both lines are possible
+     * only the one where the first detective went to the lower node is kept.
+     * The lines only score the same if neither detective moves again before
+     * the horizon, as afterwards they move in turn from each other's places,
+     * so deeper searches keep both.
+     *
+     * @param player a colour of the player to move.
+     * @param level a depth level of the minimax.
+     */
+    private void pruneSymmetricMoves(Colour player, int level) {
+        if (level == 0 || player == Colour.Black || player == Colour.Blue)
+            return;
+        // The two detectives play the rest of the game in turn order, from
+        // each other's places, unless neither reaches its next turn.
+        if (level - 1 + noOfPlayers < maxLevel)
+            return;
+        int previousMove = lineMoves[level - 1];
+        if (!isMoveTicket(previousMove))
+            return;
+        int ticket = MoveCodec.ticket(previousMove);
+        int previousTarget = decodeDestination(previousMove);
+        int previousOrigin = lineOrigins[level - 1];
+        PlayerData previous = getPlayer(playerColours[colourIndex(player) - 1]);
+        int[] tickets = ticketCounts[colourIndex(player)];
+        int[] previousTickets = ticketCounts[colourIndex(player) - 1];
+        for (int i = 0; i < 3; ++i) {
+            int used = (i == ticket) ? 1 : 0;
+            if (tickets[i] != previousTickets[i] + used)
+                return;
+        }
+        long[] mask = ticketMasks[ticket];
+        int location = currentPlayer.getLocation();
+        if (!isNeighbour(mask, location, previousTarget))
+            return;
+        int[] moves = movesValid[level];
+        int kept = 0;
+        for (int i = 1; i <= moves[0]; ++i) {
+            int move = moves[i];
+            int target = decodeDestination(move);
+            boolean symmetric = isMoveTicket(move) && MoveCodec.ticket(move) == ticket
+                              && target < previousTarget && isNeighbour(mask, previousOrigin, target);
+            // At least one move is always kept.
+            if (!symmetric || (kept == 0 && i == moves[0])) {
+                moves[++kept] = move;
+            }
+        }
+        moves[0] = kept;
+    }
+
+    /**
+     * Checks if two nodes are linked by a ticket.
+     *
+     * @param mask the neighbour masks of the ticket, as built by BeliefSet.neighbourMasks().
+     * @param source the node to start from.
+     * @param target the node to reach.
+     * @return true if the ticket takes a player from source to target and false otherwise.
+     */
+    private boolean isNeighbour(long[] mask, int source, int target) {
+        return (mask[source * BeliefSet.WORDS + (target >>> 6)] & (1L << target)) != 0;
+    }
+
+    /**
+     * Records a new best move at a level, followed by the best line found
+     * below it.
+     *
+     * @param level a depth level of the minimax.
+     * @param move the new best move at that level.
+     */
+    private void updatePrincipalVariation(int level, int move) {
+        pvTable[level][level] = move;
+        for (int i = level + 1; i < pvLength[level + 1]; ++i) {
+            pvTable[level][i] = pvTable[level + 1][i];
+        }
+        pvLength[level] = Math.max(pvLength[level + 1], level + 1);
+    }
+
+    /**
+     * Sorts the moves generated at a level so that the moves most likely to be
+     * best are searched first: the principal variation of the previous
+     * iteration, the move from the transposition table, the killer moves of
+     * the level, and then the rest by their history and a static score taken
+     * from the distances table.
+     *
+     * @param player a colour of the player whose moves are ordered.
+     * @param level a depth level of the minimax.
+     * @param tableMove the best move stored in the transposition table.
+     */
+    private void orderMoves(Colour player, int level, int tableMove) {
+        int[] moves = movesValid[level];
+        long[] keys = orderKeys[level];
+        int count = moves[0];
+        int pvMove = (followPV && level < principalLength) ? principalVariation[level] : DUMMYMOVE;
+        boolean foundPV = false;
+        int colour = colourIndex(player);
+        int mrXLocation = getPlayer(Colour.Black).getLocation();
+        for (int i = 1; i <= count; ++i) {
+            int move = moves[i];
+            int priority;
+            if (move == pvMove) {
+                priority = PV_PRIORITY;
+                foundPV = true;
+            } else if (move == tableMove) {
+                priority = TABLE_PRIORITY;
+            } else if (move == killers[level][0]) {
+                priority = KILLER_PRIORITY + 1;
+            } else if (move == killers[level][1]) {
+                priority = KILLER_PRIORITY;
+            } else if (isMovePass(move)) {
+                priority = 0;
+            } else {
+                int destination = decodeDestination(lastHalf(move));
+                priority = (history[colour][historyTicket(move)][destination] << 5)
+                         + staticScore(player, destination, mrXLocation);
+            }
+            keys[i - 1] = ((long) priority << 32) | move;
+        }
+        followPV = foundPV;
+        if (count < 2)
+            return;
+        Arrays.sort(keys, 0, count);
+        for (int i = 1; i <= count; ++i) {
+            moves[i] = (int) keys[count - i];
+        }
+    }
+
+    /**
+     * Scores a move without searching it, between 0 and 31. Mr X prefers
+     * destinations far from every detective, and a detective prefers
+     * destinations close to Mr X.
+     *
+     * @param player a colour of the player making the move.
+     * @param destination the destination of the move.
+     * @param mrXLocation the location of Mr X.
+     * @return the static score of the move.
+     */
+    int staticScore(Colour player, int destination, int mrXLocation) {
+        if (player == Colour.Black)
+            return Math.min(getNodeRank(destination), 31);
+        return 31 - Math.min(tables.distance(destination, mrXLocation), 31);
+    }
+
+    /**
+     * Remembers a move that caused a cut-off, as a killer move of its level
+     * and in the history table.
+     *
+     * @param player a colour of the player who made the move.
+     * @param level a depth level of the minimax.
+     * @param depth the number of levels searched below the move.
+     * @param move the move that caused the cut-off.
+     */
+    private void recordCutoff(Colour player, int level, int depth, int move) {
+        if (statistics != null)
+            statistics.countCutoff(level);
+        if (move == DUMMYMOVE || isMovePass(move))
+            return;
+        if (killers[level][0] != move) {
+            killers[level][1] = killers[level][0];
+            killers[level][0] = move;
+        }
+        int[] counts = history[colourIndex(player)][historyTicket(move)];
+        int destination = decodeDestination(lastHalf(move));
+        counts[destination] = Math.min(counts[destination] + depth * depth, MAX_HISTORY);
+    }
+
+    /**
+     * Forgets the killer moves and halves the history, ready for a new search.
+     */
+    private void resetOrdering() {
+        for (int[] k : killers) {
+            k[0] = DUMMYMOVE;
+            k[1] = DUMMYMOVE;
+        }
+        for (int[][] colour : history) {
+            for (int[] ticket : colour) {
+                for (int i = 0; i < ticket.length; ++i) {
+                    ticket[i] >>= 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the second half of a double move, or the move itself for a
+     * single move.
+     *
+     * @param move an encoded move.
+     * @return the last single move of the given move.
+     */
+    private int lastHalf(int move) {
+        if (isMoveDouble(move))
+            return MoveCodec.second(move);
+        return move;
+    }
+
+    /**
+     * Returns the ticket index under which a move is kept in the history
+     * table. Double moves are kept under the double ticket.
+     *
+     * @param move an encoded move.
+     * @return the index of the ticket in ticketType.
+     */
+    private int historyTicket(int move) {
+        if (isMoveDouble(move))
+            return 4;
+        return MoveCodec.ticket(move);
+    }
+
     /**
      * Extracts mrX's score from the given encoded score.
      *
@@ -402,7 +1770,7 @@ public class Simulator extends ScotlandYard {
         int score;
 		for (Colour p : playerColours){
 			if (p == Colour.Black) continue;
-            score = distances[getPlayerLocation(p)][location];
+            score = detectiveDistances(getPlayer(p))[location];
             bestScore = Math.min(bestScore, score);
 		}
 		return bestScore;
@@ -411,28 +1779,204 @@ public class Simulator extends ScotlandYard {
     /**
     * Produces the sum of shortest distances from each detective to all possible locations of mrX.
     *
-    * @param mrXPossibleLocations a HashSet of mrX possible locations.
+    * @param mrXPossibleLocations a BeliefSet of mrX possible locations.
     * @return the sum of the distances from each detective to all possible locations of mrX.
     */
-    private int getDetectiveScore(HashSet<Integer> mrXPossibleLocations) {
-        int detectiveLocation;
+    int getDetectiveScore(BeliefSet mrXPossibleLocations) {
+        byte[] distances;
         int score = 0;
         for (int i = 1; i < 6; ++i) {
-            detectiveLocation = getPlayerLocation(playerColours[i]);
-            for (Integer destination : mrXPossibleLocations) {
-                score += distances[detectiveLocation][destination];
+            distances = detectiveDistances(getPlayer(playerColours[i]));
+            for (int destination = mrXPossibleLocations.nextLocation(0);
+                 destination >= 0;
+                 destination = mrXPossibleLocations.nextLocation(destination + 1)) {
+                score += distances[destination];
             }
         }
         return score;
     }
 
+    /**
+     * Computes the terms of the leaf evaluation from scratch: the distances
+     * from each detective to every node given the tickets it has left, the
+     * sum of those distances over mrX's possible locations weighted by the
+     * probability of him being there, and the distance to mrX himself. From
+     * here they are kept up to date by searchPlay() and searchReverse(), so a
+     * leaf is scored without going over the detectives and the possible
+     * locations again.
+     *
+     * @param locations a BeliefSet of mrX's possible locations.
+     */
+    private void resetEvaluation(BeliefSet locations) {
+        weights = weightBuffers[0];
+        Arrays.fill(weights, 0);
+        for (int location = locations.nextLocation(0);
+             location >= 0;
+             location = locations.nextLocation(location + 1)) {
+            weights[location] = mrXWeights[location];
+        }
+        weightMass = sumWeights(weights, locations);
+        if (weightMass == 0) {
+            setUniformWeights(weights, locations);
+            weightMass = locations.size();
+        }
+        int mrX = getPlayer(Colour.Black).getLocation();
+        for (int i = 1; i < noOfPlayers; ++i) {
+            detectiveRows[i] = detectiveDistances(getPlayer(playerColours[i]));
+            detectiveSums[i] = sumDistances(detectiveRows[i], weights, locations);
+            mrXDistances[i] = detectiveRows[i][mrX];
+        }
+    }
+
+    /**
+     * Plays a move in the minimax, updating the terms of the leaf evaluation.
+     * A detective move only changes the distances of that detective, and the
+     * sums of the others lose its destination if mrX could have been there.
+     * A move by mrX moves the probabilities on with the transition matrix of
+     * the ticket he used, so every sum is redone.
+     *
+     * @param move a move to be played by the current player.
+     * @param level a depth level of the minimax, under which the old terms are saved.
+     * @param locations a BeliefSet of mrX's possible locations.
+     */
+    private void searchPlay(int move, int level, BeliefSet locations) {
+        System.arraycopy(detectiveRows, 0, savedRows[level], 0, noOfPlayers);
+        System.arraycopy(detectiveSums, 0, savedSums[level], 0, noOfPlayers);
+        System.arraycopy(mrXDistances, 0, savedDistances[level], 0, noOfPlayers);
+        savedWeights[level] = weights;
+        savedMass[level] = weightMass;
+        landingNodes[level] = -1;
+        lineMoves[level] = move;
+        lineOrigins[level] = currentPlayer.getLocation();
+        if (isMovePass(move))
+            return;
+        if (currentPlayer.getColour() == Colour.Black) {
+            double[] next = weightBuffers[level + 1];
+            advanceWeights(move, weights, next);
+            weights = next;
+            play(move, locations);
+            weightMass = sumWeights(weights, locations);
+            int mrX = getPlayer(Colour.Black).getLocation();
+            for (int i = 1; i < noOfPlayers; ++i) {
+                detectiveSums[i] = sumDistances(detectiveRows[i], weights, locations);
+                mrXDistances[i] = detectiveRows[i][mrX];
+            }
+        } else {
+            int target = decodeDestination(move);
+            boolean removed = locations.contains(target);
+            play(move, locations);
+            int index = colourIndex(currentPlayer.getColour());
+            byte[] row = detectiveDistances(currentPlayer);
+            detectiveRows[index] = row;
+            detectiveSums[index] = sumDistances(row, weights, locations);
+            mrXDistances[index] = row[getPlayer(Colour.Black).getLocation()];
+            if (removed) {
+                double weight = weights[target];
+                landingNodes[level] = target;
+                savedLanding[level] = weight;
+                weights[target] = 0;
+                weightMass -= weight;
+                for (int i = 1; i < noOfPlayers; ++i) {
+                    if (i != index) detectiveSums[i] -= weight * detectiveRows[i][target];
+                }
+            }
+        }
+    }
+
+    /**
+     * Reverses a move played with searchPlay(), restoring the terms of the
+     * leaf evaluation saved before it.
+     *
+     * @param move a move played.
+     * @param level the depth level of the minimax the move was played at.
+     * @param previousLocation a location of the player before the move was made.
+     */
+    private void searchReverse(int move, int level, int previousLocation) {
+        reversePlay(move, previousLocation);
+        System.arraycopy(savedRows[level], 0, detectiveRows, 0, noOfPlayers);
+        System.arraycopy(savedSums[level], 0, detectiveSums, 0, noOfPlayers);
+        System.arraycopy(savedDistances[level], 0, mrXDistances, 0, noOfPlayers);
+        weights = savedWeights[level];
+        weightMass = savedMass[level];
+        if (landingNodes[level] >= 0) {
+            weights[landingNodes[level]] = savedLanding[level];
+        }
+    }
+
+    /**
+     * Returns the distance from the nearest detective to mrX, as kept up to
+     * date by searchPlay(). The same as getNodeRank() at mrX's location.
+     *
+     * @return the fewest moves any detective needs to reach mrX.
+     */
+    private int nearestDetectiveDistance() {
+        int nearest = Integer.MAX_VALUE;
+        for (int i = 1; i < noOfPlayers; ++i) {
+            nearest = Math.min(nearest, mrXDistances[i]);
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns the sum of the distances from each detective to all possible
+     * locations of mrX, as kept up to date by searchPlay(). Each location
+     * counts by the probability of mrX being there, scaled so that with every
+     * location equally likely this is the same as getDetectiveScore().
+     *
+     * @param size the number of possible locations of mrX.
+     * @return the weighted sum of the distances.
+     */
+    private int detectiveDistanceSum(int size) {
+        if (weightMass <= 0)
+            return 0;
+        double score = 0;
+        for (int i = 1; i < noOfPlayers; ++i) {
+            score += detectiveSums[i];
+        }
+        return (int) Math.round(score * size / weightMass);
+    }
+
+    /**
+     * Sums the distances from one detective to all possible locations of mrX,
+     * weighted by the probability of him being there.
+     *
+     * @param distances the distances from the detective, indexed by node.
+     * @param weights the probability of mrX being at each node, not normalised.
+     * @param locations a BeliefSet of mrX's possible locations.
+     * @return the weighted sum of the distances.
+     */
+    private static double sumDistances(byte[] distances, double[] weights, BeliefSet locations) {
+        double sum = 0;
+        for (int location = locations.nextLocation(0);
+             location >= 0;
+             location = locations.nextLocation(location + 1)) {
+            sum += weights[location] * distances[location];
+        }
+        return sum;
+    }
+
+    /**
+    * Returns the fewest moves from a detective to every node, using only the
+    * tickets the detective has left.
+    *
+    * @param detective the detective to measure from.
+    * @return the distances indexed by node.
+    */
+    private byte[] detectiveDistances(PlayerData detective) {
+        int[] tickets = ticketCounts[colourIndex(detective.getColour())];
+        return oracle.distancesFrom(detective.getLocation(),
+                                    tickets[ticketIndex(Ticket.Taxi)],
+                                    tickets[ticketIndex(Ticket.Bus)],
+                                    tickets[ticketIndex(Ticket.Underground)]);
+    }
+
     /**
     * Updates mrX's possible locations given a move and the set of possible locations.
     *
     * @param moveMade a move made.
-    * @param locations a HashSet of mrX possible locations.
+    * @param locations a BeliefSet of mrX possible locations.
     */
-    private void updatePossibleLocations(int moveMade, HashSet<Integer> locations) {
+    void updatePossibleLocations(int moveMade, BeliefSet locations) {
         Colour colour = decodeColour(moveMade);
         if (colour == Colour.Black && rounds.get(currentRound + 1)) {
             //clearing global list of Mr X possible locations
@@ -441,38 +1985,14 @@ public class Simulator extends ScotlandYard {
             locations.add(mrXLocation);
         } else {
             if (colour == Colour.Black) {
-                HashSet<Integer> newLocations = new HashSet<Integer>();
-                for (Integer location : locations) {
-                    int m ;
-                    for (int i = 1; i <= generatedMoves[location][0]; ++i) {
-                        m = generatedMoves[location][i];
-                        if (isMoveTicket(m) && isMoveTicket(moveMade)) {
-                            int destination = decodeDestination(m);
-							if (Math.abs(moveMade - m) < 201 && !occupiedNodes[destination]) {
-                                newLocations.add(destination);
-							}
-					    } else if (isMoveDouble(m) && isMoveDouble(moveMade)) {
-                            int m1 = m / 100000;
-                            int m2 = m - m1 * 100000;
-                            int moveMade1 = moveMade / 100000;
-                            int moveMade2 = moveMade - moveMade1 * 100000;
-                            int destinationM1 = decodeDestination(m1);
-                            int destinationM2 = decodeDestination(m2);
-                            if (Math.abs(moveMade1 - m1) < 201 && !occupiedNodes[destinationM1]) {
-                                if (Math.abs(moveMade2 - m2) < 201 && !occupiedNodes[destinationM2]) {
-                                    newLocations.add(destinationM2);
-                                }
-                            }
-						}
-                    }
+                if (isMoveDouble(moveMade)) {
+                    locations.advance(ticketMasks[MoveCodec.ticket(MoveCodec.first(moveMade))], occupiedSet);
+                    locations.advance(ticketMasks[MoveCodec.ticket(MoveCodec.second(moveMade))], occupiedSet);
+                } else {
+                    locations.advance(ticketMasks[MoveCodec.ticket(moveMade)], occupiedSet);
                 }
-                locations.clear();
-                locations.addAll(newLocations);
             } else {
-                int destination = decodeDestination(moveMade);
-                if (locations.contains(destination)) {
-                    locations.remove(destination);
-                }
+                locations.remove(decodeDestination(moveMade));
             }
         }
     }
@@ -484,19 +2004,9 @@ public class Simulator extends ScotlandYard {
     * @return the destination of a given move.
     */
     private int decodeDestination(int move) {
-        return move - (move / 1000) * 1000;
+        return MoveCodec.destination(move);
     }
 
-    /**
-    * Extracts the ticket from encoded move.
-    *
-    * @param move a move containing the ticket.
-    * @return the index of a ticket used in the given move.
-    */
-	private int getSingleTicket(int move) {
-		return (move - (move / 10000) * 10000) - decodeDestination(move);
-	}
-
     /**
     * Checks if the given move is a MoveDouble.
     *
@@ -504,7 +2014,7 @@ public class Simulator extends ScotlandYard {
     * @return true if move is MoveDouble and false otherwise.
     */
 	private boolean isMoveDouble(int move) {
-		return move > 100000;
+		return MoveCodec.isDouble(move);
 	}
 
     /**
@@ -514,7 +2024,7 @@ public class Simulator extends ScotlandYard {
     * @return true if move is MovePass and false otherwise.
     */
 	private boolean isMovePass(int move) {
-		return ((move / 10000) * 10000) == move;
+		return MoveCodec.isPass(move);
 	}
 
     /**
@@ -524,7 +2034,7 @@ public class Simulator extends ScotlandYard {
     * @return true if move is MoveTicket and false otherwise.
     */
 	private boolean isMoveTicket(int move) {
-		return !isMovePass(move) && !isMoveDouble(move);
+		return MoveCodec.isTicket(move);
 	}
 
     /**
@@ -534,11 +2044,7 @@ public class Simulator extends ScotlandYard {
     * @return a colour of the player in the int form.
     */
     public int encodeColour(Colour colour) {
-       for (int i = 0; i < 6; ++i) {
-           if (playerColours[i] == colour)
-                return (i + 1) * 10000;
-       }
-       return -1;
+        return MoveCodec.encodePass(MoveCodec.colourIndex(colour));
     }
 
     /**
@@ -548,11 +2054,7 @@ public class Simulator extends ScotlandYard {
     * @return a ticket in the int form.
     */
     public int encodeTicket(Ticket ticket) {
-        for (int i = 0; i < 5; ++i) {
-            if (ticketType[i] == ticket)
-                return (i + 1) * 1000;
-        }
-        return -1;
+        return MoveCodec.encodeTicket(MoveCodec.ticketIndex(ticket));
     }
 
     /**
@@ -562,8 +2064,7 @@ public class Simulator extends ScotlandYard {
     * @return a colour of the player who made the given move.
     */
 	public Colour decodeColour(int move) {
-		int colour = move / 10000;
-		return playerColours[colour - 1];
+		return playerColours[MoveCodec.colour(move)];
 	}
 
     /**
@@ -573,8 +2074,7 @@ public class Simulator extends ScotlandYard {
     * @return a colour of the player who made the given move.
     */
 	public Ticket decodeTicket(int move) {
-		int ticket = getSingleTicket(move) / 1000;
-		return ticketType[ticket - 1];
+		return ticketType[MoveCodec.ticket(move)];
 	}
 
 	/**
@@ -587,8 +2087,8 @@ public class Simulator extends ScotlandYard {
 		if (isMoveTicket(move)) {
 			return decodeMoveTicket(move);
 		} else if (isMoveDouble(move)) {
-			int m1 = move / 100000;
-			int m2 = move - m1 * 100000;
+			int m1 = MoveCodec.first(move);
+			int m2 = MoveCodec.second(move);
 			MoveTicket move1 = decodeMoveTicket(m1);
 			MoveTicket move2 = decodeMoveTicket(m2);
 			return MoveDouble.instance(decodeColour(m1), move1, move2);
@@ -639,7 +2139,7 @@ public class Simulator extends ScotlandYard {
 	public int encodeMove(MoveTicket move) {
 		int player = encodeColour(move.colour);
 		int ticket = encodeTicket(move.ticket);
-		return player + ticket + move.target;
+		return player | ticket | move.target;
 	}
 
 	/**
@@ -651,7 +2151,7 @@ public class Simulator extends ScotlandYard {
 	public int encodeMove(MoveDouble move) {
 		int move1 = encodeMove(move.move1);
 		int move2 = encodeMove(move.move2);
-		return move1 * 100000 + move2;
+		return MoveCodec.encodeDouble(move1, move2);
 	}
 
 	/**
@@ -673,7 +2173,7 @@ public class Simulator extends ScotlandYard {
     * @return true if given player contains a given ticker and false otherwise.
     */
 	public boolean hasTickets(PlayerData player, Ticket ticket) {
-        return player.getTickets().get(ticket) != 0;
+        return ticketCounts[colourIndex(player.getColour())][ticketIndex(ticket)] != 0;
     }
 
 	/**
@@ -686,7 +2186,7 @@ public class Simulator extends ScotlandYard {
     * @param location a location of the player.
     * @param mrXOldLocations a set of possible locations mrX could be at.
     */
-    public void validMoves(Colour col, int level, boolean dbl, int xScore, int location, HashSet<Integer> mrXOldLocations) {
+    public void validMoves(Colour col, int level, boolean dbl, int xScore, int location, BeliefSet mrXOldLocations) {
 		movesValid[level][0] = 0;
 		PlayerData player = getPlayer(col);
         int colour = encodeColour(col);
@@ -694,30 +2194,33 @@ public class Simulator extends ScotlandYard {
         int secretTicket = encodeTicket(Ticket.Secret);
         int normalMove;
         int secretMove;
-        Node<Integer> nodeLocation = graph.getNode(player.getLocation());
-        for (Edge<Integer, Transport> e : graph.getEdgesFrom(nodeLocation)) {
-            normalTicket = encodeTicket(Ticket.fromTransport(e.getData()));
-            normalMove = colour + normalTicket + e.getTarget().getIndex();
-            if (hasTickets(player, Ticket.fromTransport(e.getData())) && !occupiedNodes[e.getTarget().getIndex()]) {
+        int[] tickets = ticketCounts[colourIndex(col)];
+        int[] targets = edgeTargets[player.getLocation()];
+        Ticket[] transports = edgeTickets[player.getLocation()];
+        for (int i = 0; i < targets.length; ++i) {
+            int target = targets[i];
+            normalTicket = encodeTicket(transports[i]);
+            normalMove = colour | normalTicket | target;
+            if (hasTickets(player, transports[i]) && !occupiedNodes[target]) {
                 AIPlayerFactory.addElementToArray(movesValid[level], normalMove);
             }
             if (col == Colour.Black) {
-                secretMove = colour + secretTicket + e.getTarget().getIndex();
-                if (hasTickets(player, Ticket.Secret) && !occupiedNodes[e.getTarget().getIndex()]
-                && getRound() >= 3 && !view.getRounds().get(getRound()) && mrXOldLocations.size() < 5
-                && xScore < 300 && onlyTaxiLinks[location] == 0) {
+                secretMove = colour | secretTicket | target;
+                if (hasTickets(player, Ticket.Secret) && !occupiedNodes[target]
+                && getRound() >= 3 && !rounds.get(getRound()) && mrXOldLocations.size() < 5
+                && xScore < 300 && !tables.isTaxiOnly(location)) {
                     AIPlayerFactory.addElementToArray(movesValid[level], secretMove);
                 }
                 if (dbl && hasTickets(player, Ticket.Double)) {
-                    player.removeTicket(Ticket.fromTransport(e.getData()));
-                    validDoubleMoves(player, e, normalMove, level);
-                    player.addTicket(Ticket.fromTransport(e.getData()));
+                    --tickets[ticketIndex(transports[i])];
+                    validDoubleMoves(player, target, normalMove, level);
+                    ++tickets[ticketIndex(transports[i])];
                     if (hasTickets(player, Ticket.Secret)
-                    && getRound() >= 3 && !view.getRounds().get(getRound())
-                    && mrXOldLocations.size() < 5 && xScore < 300 && onlyTaxiLinks[location] == 0) {
-                	    player.removeTicket(Ticket.Secret);
-                	    validDoubleMoves(player, e, secretMove, level);
-                	    player.addTicket(Ticket.Secret);
+                    && getRound() >= 3 && !rounds.get(getRound())
+                    && mrXOldLocations.size() < 5 && xScore < 300 && !tables.isTaxiOnly(location)) {
+                	    --tickets[ticketIndex(Ticket.Secret)];
+                	    validDoubleMoves(player, target, secretMove, level);
+                	    ++tickets[ticketIndex(Ticket.Secret)];
                     }
                 }
             }
@@ -732,11 +2235,11 @@ public class Simulator extends ScotlandYard {
 	* Generates the valid double moves for a given player.
 	*
 	* @param player a player for which we are generating the moves.
-	* @param previousEdge a graph edge of the previous move.
+	* @param middle the node the previous move ends at.
 	* @param movePrevious an encoded previous move.
 	* @param level a level of depth in the minimax.
 	*/
-	public void validDoubleMoves(PlayerData player, Edge<Integer, Transport> previousEdge, int movePrevious, int level) {
+	public void validDoubleMoves(PlayerData player, int middle, int movePrevious, int level) {
 		int colour = encodeColour(player.getColour());
 		int normalTicket;
         int secretTicket = encodeTicket(Ticket.Secret);
@@ -744,18 +2247,19 @@ public class Simulator extends ScotlandYard {
         int secretMove;
         int normalDouble;
         int secretDouble;
-		Integer middle = (Integer) previousEdge.getTarget().getIndex();
-        Node<Integer> nodeLocation = graph.getNode(middle);
-		for (Edge<Integer, Transport> e : graph.getEdgesFrom(nodeLocation)) {
-            normalTicket = encodeTicket(Ticket.fromTransport(e.getData()));
-            if (hasTickets(player, Ticket.fromTransport(e.getData())) && !occupiedNodes[middle] && !occupiedNodes[e.getTarget().getIndex()]) {
-				normalMove = colour + normalTicket + e.getTarget().getIndex();
-				normalDouble = movePrevious * 100000 + normalMove;
+        int[] targets = edgeTargets[middle];
+        Ticket[] transports = edgeTickets[middle];
+		for (int i = 0; i < targets.length; ++i) {
+            int target = targets[i];
+            normalTicket = encodeTicket(transports[i]);
+            if (hasTickets(player, transports[i]) && !occupiedNodes[middle] && !occupiedNodes[target]) {
+				normalMove = colour | normalTicket | target;
+				normalDouble = MoveCodec.encodeDouble(movePrevious, normalMove);
 				AIPlayerFactory.addElementToArray(movesValid[level], normalDouble);
             }
-			if (hasTickets(player, Ticket.Secret) && !occupiedNodes[middle] && !occupiedNodes[e.getTarget().getIndex()]) {
-            	secretMove = colour + secretTicket + e.getTarget().getIndex();
-            	secretDouble = movePrevious * 100000 + secretMove;
+			if (hasTickets(player, Ticket.Secret) && !occupiedNodes[middle] && !occupiedNodes[target]) {
+            	secretMove = colour | secretTicket | target;
+            	secretDouble = MoveCodec.encodeDouble(movePrevious, secretMove);
             	AIPlayerFactory.addElementToArray(movesValid[level], secretDouble);
         	}
 		}
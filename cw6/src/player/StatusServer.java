@@ -0,0 +1,55 @@
+package player;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Serves the status of an AIPlayerFactory as plain text over HTTP, on the
+ * loopback interface only, so that the latencies of the games being played
+ * can be watched while the AI service runs, e.g. with:
+ * <pre>
+ *   curl http://localhost:port/
+ * </pre>
+ */
+public class StatusServer {
+    private final HttpServer server;
+
+    /**
+     * Constructs a new StatusServer and starts serving.
+     *
+     * @param port the port to bind on the loopback interface.
+     * @param factory the factory whose status is served.
+     * @throws IOException if the port cannot be bound.
+     */
+    public StatusServer(int port, final AIPlayerFactory factory) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = factory.getStatus().getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(body);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Stops serving.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+}
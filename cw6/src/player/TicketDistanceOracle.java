@@ -0,0 +1,233 @@
+package player;
+
+import scotlandyard.*;
+
+import java.util.Arrays;
+
+/**
+ * Answers "how many moves does a detective holding these tickets need to go
+ * from a to b". The plain distance tables assume every transport can always
+ * be used, but a detective with no underground tickets left cannot ride the
+ * tube, and one with no bus tickets is limited to taxis and the tube.
+ * <p>
+ * The oracle runs a breadth first search over (node, remaining taxi, bus and
+ * underground tickets) states from a source and returns the fewest moves to
+ * every node at once. Ticket counts are capped at MAX_DISTANCE, since holding
+ * more tickets than moves searched makes no difference. The rows are cached
+ * in a direct-mapped table keyed by the source and the capped ticket vector,
+ * where a row replaces whichever row shared its slot, and the last row asked
+ * for from each source is also kept in a plain array in front of the table,
+ * so repeated queries from the same detective cost a single comparison.
+ * Neither allocates, so a warmed up search asks for rows for free.
+ * <p>
+ * The queue and the visited states of the breadth first search hold 3 MB
+ * and nothing of a game, so they belong to the thread searching rather
+ * than to the oracle: every copy of a simulator has its own oracle, and a
+ * parallel search makes a copy for each of its tasks.
+ */
+public class TicketDistanceOracle {
+    /** Distances are searched up to this many moves; further nodes report it. */
+    public final static int MAX_DISTANCE = 15;
+    public final static int CACHE_BITS = 12;
+    public final static int CACHE_SIZE = 1 << CACHE_BITS;
+
+    private final static int NODES = DistanceGenerator.NODES;
+    private final static int COUNT_BITS = 4;
+    private final static int COUNT_MASK = (1 << COUNT_BITS) - 1;
+    private final static int VECTORS = 1 << (3 * COUNT_BITS);
+    private final static ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private final DistanceGenerator generator;
+    private final int taxiBit;
+    private final int busBit;
+    private final int undergroundBit;
+    private final int[] cacheKeys;
+    private final byte[][] cacheRows;
+    private final int[] recentVectors;
+    private final byte[][] recentRows;
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructs a new TicketDistanceOracle.
+     *
+     * @param generator the distance generator holding the links of the map.
+     */
+    public TicketDistanceOracle(DistanceGenerator generator) {
+        this.generator = generator;
+        this.taxiBit = 1 << Transport.Taxi.ordinal();
+        this.busBit = 1 << Transport.Bus.ordinal();
+        this.undergroundBit = 1 << Transport.Underground.ordinal();
+        this.cacheKeys = new int[CACHE_SIZE];
+        this.cacheRows = new byte[CACHE_SIZE][];
+        Arrays.fill(cacheKeys, -1);
+        this.recentVectors = new int[NODES];
+        this.recentRows = new byte[NODES][];
+    }
+
+    /**
+     * Returns the fewest moves from a source to every node for a detective
+     * holding the given tickets. The returned array is shared with the cache
+     * and must not be modified.
+     *
+     * @param source the node the detective is at.
+     * @param taxi the number of taxi tickets held.
+     * @param bus the number of bus tickets held.
+     * @param underground the number of underground tickets held.
+     * @return the distances, indexed by node, capped at MAX_DISTANCE.
+     */
+    public byte[] distancesFrom(int source, int taxi, int bus, int underground) {
+        int vector = (Math.min(taxi, MAX_DISTANCE) << (2 * COUNT_BITS))
+                   | (Math.min(bus, MAX_DISTANCE) << COUNT_BITS)
+                   | Math.min(underground, MAX_DISTANCE);
+        byte[] row = recentRows[source];
+        if (row != null && recentVectors[source] == vector) {
+            ++hits;
+            return row;
+        }
+        int key = (source << (3 * COUNT_BITS)) | vector;
+        int slot = (key * 0x9E3779B1) >>> (32 - CACHE_BITS);
+        if (cacheKeys[slot] == key) {
+            ++hits;
+            row = cacheRows[slot];
+        } else {
+            ++misses;
+            row = search(source, vector);
+            cacheKeys[slot] = key;
+            cacheRows[slot] = row;
+        }
+        recentVectors[source] = vector;
+        recentRows[source] = row;
+        return row;
+    }
+
+    /**
+     * Returns the fewest moves between two nodes for a detective holding the
+     * given tickets.
+     *
+     * @param source the node the detective is at.
+     * @param target the node to reach.
+     * @param taxi the number of taxi tickets held.
+     * @param bus the number of bus tickets held.
+     * @param underground the number of underground tickets held.
+     * @return the number of moves, capped at MAX_DISTANCE.
+     */
+    public int distance(int source, int target, int taxi, int bus, int underground) {
+        return distancesFrom(source, taxi, bus, underground)[target];
+    }
+
+    /**
+     * Returns the number of queries answered from the cache.
+     *
+     * @return the number of cache hits.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of queries that needed a search.
+     *
+     * @return the number of cache misses.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Searches the (node, tickets) states breadth first from a source.
+     *
+     * @param source the node to search from.
+     * @param vector the capped ticket counts, packed as taxi, bus, underground.
+     * @return the distances, indexed by node, capped at MAX_DISTANCE.
+     */
+    private byte[] search(int source, int vector) {
+        byte[] row = new byte[NODES];
+        for (int node = 0; node < NODES; ++node) {
+            row[node] = MAX_DISTANCE;
+        }
+        int[] offsets = generator.offsets;
+        int[] targets = generator.targets;
+        int[] transports = generator.transports;
+        Scratch buffers = scratch.get();
+        int[] queue = buffers.queue;
+        long[] visited = buffers.visited;
+        int head = 0;
+        int tail = 0;
+        int found = 0;
+        queue[tail++] = source * VECTORS + vector;
+        mark(visited, queue[0]);
+        for (int depth = 0; depth < MAX_DISTANCE && head < tail && found < NODES - 1; ++depth) {
+            int layerEnd = tail;
+            while (head < layerEnd) {
+                int state = queue[head++];
+                int node = state / VECTORS;
+                int tickets = state % VECTORS;
+                if (row[node] > depth) {
+                    row[node] = (byte) depth;
+                    ++found;
+                }
+                int taxi = tickets >>> (2 * COUNT_BITS);
+                int bus = (tickets >>> COUNT_BITS) & COUNT_MASK;
+                int underground = tickets & COUNT_MASK;
+                for (int i = offsets[node]; i < offsets[node + 1]; ++i) {
+                    int transport = transports[i];
+                    int next;
+                    if (transport == taxiBit && taxi > 0) {
+                        next = tickets - (1 << (2 * COUNT_BITS));
+                    } else if (transport == busBit && bus > 0) {
+                        next = tickets - (1 << COUNT_BITS);
+                    } else if (transport == undergroundBit && underground > 0) {
+                        next = tickets - 1;
+                    } else {
+                        continue;
+                    }
+                    int nextState = targets[i] * VECTORS + next;
+                    if (!isMarked(visited, nextState)) {
+                        mark(visited, nextState);
+                        queue[tail++] = nextState;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < tail; ++i) {
+            visited[queue[i] >>> 6] = 0;
+        }
+        return row;
+    }
+
+    /**
+     * Marks a state as visited.
+     *
+     * @param visited the visited states.
+     * @param state the state to be marked.
+     */
+    private static void mark(long[] visited, int state) {
+        visited[state >>> 6] |= 1L << state;
+    }
+
+    /**
+     * Checks if a state has been visited.
+     *
+     * @param visited the visited states.
+     * @param state the state to be checked.
+     * @return true if the state has been visited and false otherwise.
+     */
+    private static boolean isMarked(long[] visited, int state) {
+        return (visited[state >>> 6] & (1L << state)) != 0;
+    }
+
+    /**
+     * The buffers of the breadth first search of one thread. The visited
+     * states are cleared again at the end of every search.
+     */
+    private static class Scratch {
+        final long[] visited = new long[NODES * VECTORS / 64];
+        final int[] queue = new int[NODES * VECTORS];
+    }
+}
@@ -0,0 +1,381 @@
+package player;
+
+import net.*;
+import scotlandyard.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Plays games between player configurations without the GUI, matchmaker or
+ * judge, driving the ScotlandYard model directly on the threads of a
+ * ForkJoinPool. Each game starts from random locations drawn from the same
+ * pools as a real game, and every Mr X configuration plays the same start
+ * positions, so configurations are compared on equal games. To run it:
+ * <pre>
+ *   java player.Tournament [games [threads [moveTime [detectives [mrX ...]]]]]
+ * </pre>
+ * where a configuration is minimax, mcts or random, the detectives are
+ * random and Mr X is minimax by default, and moveTime is the number of
+ * milliseconds an AI may think per move, 100 by default. The AIPlayer only
+ * plays Mr X, so the detectives can only be random.
+ * <p>
+ * For each Mr X configuration the win rate is reported with its Elo against
+ * the detectives, with a 95% confidence interval, and the average time each
+ * side took per move; with two or more configurations, the Elo of each
+ * relative to the first is reported too. Players print a lot as they play,
+ * so their output is discarded while the games run.
+ */
+public class Tournament {
+    public final static String MINIMAX = "minimax";
+    public final static String MCTS = "mcts";
+    public final static String RANDOM = "random";
+    public final static int DEFAULT_GAMES = 100;
+    public final static long DEFAULT_MOVE_TIME = 100;
+
+    private final static int DETECTIVES = 5;
+    private final static long SEED = 1;
+    // The z-score of a two-sided 95% confidence interval.
+    private final static double Z = 1.96;
+
+    private final String graphFilename;
+    private final ScotlandYardGraph graph;
+    private final long moveTime;
+
+    /**
+     * Constructs a new Tournament.
+     *
+     * @param graphFilename the name of the file containing the graph components.
+     * @param moveTime the number of milliseconds an AI may think per move.
+     * @throws IOException if the graph cannot be read.
+     */
+    public Tournament(String graphFilename, long moveTime) throws IOException {
+        this.graphFilename = graphFilename;
+        this.graph = new ScotlandYardGraphReader().readGraph(graphFilename);
+        this.moveTime = moveTime;
+    }
+
+    /**
+     * The outcome of one game and the time each side took to move.
+     */
+    static class GameResult {
+        boolean mrXWon;
+        long mrXNanos;
+        int mrXMoves;
+        long detectiveNanos;
+        int detectiveMoves;
+    }
+
+    /**
+     * The results of one Mr X configuration added up over its games.
+     */
+    static class Standing {
+        final String mrX;
+        int games;
+        int wins;
+        int errors;
+        long mrXNanos;
+        long mrXMoves;
+        long detectiveNanos;
+        long detectiveMoves;
+
+        Standing(String mrX) {
+            this.mrX = mrX;
+        }
+
+        void add(GameResult result) {
+            ++games;
+            if (result.mrXWon)
+                ++wins;
+            mrXNanos += result.mrXNanos;
+            mrXMoves += result.mrXMoves;
+            detectiveNanos += result.detectiveNanos;
+            detectiveMoves += result.detectiveMoves;
+        }
+
+        /**
+         * Returns the share of games won by Mr X, kept half a game away from
+         * 0 and 1 so that the Elo stays finite.
+         *
+         * @return the score of Mr X.
+         */
+        double score() {
+            double half = 0.5 / Math.max(games, 1);
+            return Math.min(Math.max((double) wins / Math.max(games, 1), half), 1 - half);
+        }
+    }
+
+    /**
+     * Plays every Mr X configuration against the detectives.
+     *
+     * @param games the number of games each Mr X configuration plays.
+     * @param threads the number of games played at the same time.
+     * @param detectives the configuration of the detectives.
+     * @param mrXs the configurations of Mr X.
+     * @param out the stream progress is printed to.
+     * @return the standing of each Mr X configuration, in the same order.
+     */
+    public Standing[] run(int games, int threads, final String detectives, String[] mrXs, PrintStream out) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Map<String, PlayerFactory> factories = new HashMap<String, PlayerFactory>();
+        final PlayerFactory detectiveFactory = factory(detectives, factories);
+        List<Future<GameResult>> futures = new ArrayList<Future<GameResult>>();
+        for (String mrX : mrXs) {
+            final PlayerFactory mrXFactory = factory(mrX, factories);
+            for (int game = 0; game < games; ++game) {
+                final long seed = SEED + game;
+                futures.add(pool.submit(new Callable<GameResult>() {
+                    @Override
+                    public GameResult call() {
+                        return play(seed, mrXFactory, detectiveFactory);
+                    }
+                }));
+            }
+        }
+        Standing[] standings = new Standing[mrXs.length];
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < futures.size(); ++i) {
+            Standing standing = standings[i / games];
+            if (standing == null) {
+                standing = new Standing(mrXs[i / games]);
+                standings[i / games] = standing;
+            }
+            try {
+                standing.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                ++standing.errors;
+                out.println("Game " + i % games + " of " + standing.mrX + " failed: " + e.getCause());
+            }
+            int played = i + 1;
+            if (played % Math.max(futures.size() / 10, 1) == 0 || played == futures.size()) {
+                long elapsed = Math.max(System.currentTimeMillis() - startTime, 1);
+                out.printf("Played %d of %d games in %.1f s, %.2f games/s.%n",
+                           played, futures.size(), elapsed / 1000.0, played * 1000.0 / elapsed);
+            }
+        }
+        pool.shutdownNow();
+        return standings;
+    }
+
+    /**
+     * Plays one game.
+     *
+     * @param seed the seed from which the start locations are drawn.
+     * @param mrXFactory the factory of Mr X.
+     * @param detectiveFactory the factory of the detectives.
+     * @return the result of the game.
+     */
+    GameResult play(long seed, PlayerFactory mrXFactory, PlayerFactory detectiveFactory) {
+        Random random = new Random(seed);
+        ScotlandYard model = new ScotlandYard(DETECTIVES, OpeningBookBuilder.rounds(), graph,
+                                              new ScotlandYardMapQueue<Integer, Token>(), (int) seed);
+        GameResult result = new GameResult();
+        int mrXLocation = OpeningBookBuilder.MRX_LOCATIONS[random.nextInt(OpeningBookBuilder.MRX_LOCATIONS.length)];
+        List<Integer> starts = new ArrayList<Integer>();
+        for (int location : OpeningBookBuilder.DETECTIVE_LOCATIONS) {
+            starts.add(location);
+        }
+        Collections.shuffle(starts, random);
+        Colour[] colours = Colour.values();
+        model.join(new TimedPlayer(player(mrXFactory, Colour.Black, model), result, true),
+                   Colour.Black, mrXLocation, OpeningBookBuilder.tickets(Colour.Black));
+        for (int i = 1; i <= DETECTIVES; ++i) {
+            model.join(new TimedPlayer(player(detectiveFactory, colours[i], model), result, false),
+                       colours[i], starts.get(i - 1), OpeningBookBuilder.tickets(colours[i]));
+        }
+        for (Spectator spectator : mrXFactory.getSpectators(model)) {
+            model.spectate(spectator);
+        }
+        for (Spectator spectator : detectiveFactory.getSpectators(model)) {
+            model.spectate(spectator);
+        }
+        mrXFactory.ready();
+        detectiveFactory.ready();
+        model.startRound();
+        mrXFactory.finish();
+        detectiveFactory.finish();
+        result.mrXWon = model.getWinningPlayers().contains(Colour.Black);
+        return result;
+    }
+
+    /**
+     * Returns the player factory of a configuration, creating it the first
+     * time. A factory serves every game of the tournament: an AIPlayerFactory
+     * keeps the spectators of each game apart, and loads the opening book
+     * and makes its pool only once.
+     *
+     * @param configuration minimax, mcts or random.
+     * @param factories the factories created so far, by configuration.
+     * @return the player factory.
+     */
+    private static PlayerFactory factory(String configuration, Map<String, PlayerFactory> factories) {
+        PlayerFactory factory = factories.get(configuration);
+        if (factory == null) {
+            if (configuration.equals(MINIMAX)) {
+                factory = new AIPlayerFactory(AIPlayer.MINIMAX);
+            } else if (configuration.equals(MCTS)) {
+                factory = new AIPlayerFactory(AIPlayer.MONTE_CARLO);
+            } else {
+                factory = new RandomPlayerFactory();
+            }
+            factories.put(configuration, factory);
+        }
+        return factory;
+    }
+
+    /**
+     * Gets a player from a factory. An AIPlayer searches on a single thread,
+     * as the games themselves already run in parallel.
+     *
+     * @param factory the factory of the player.
+     * @param colour the colour of the player.
+     * @param model the game the player joins.
+     * @return the player.
+     */
+    private Player player(PlayerFactory factory, Colour colour, ScotlandYardView model) {
+        Player player = factory.getPlayer(colour, model, graphFilename);
+        if (player instanceof AIPlayer) {
+            ((AIPlayer) player).setThreads(1);
+            ((AIPlayer) player).setMoveTime(moveTime);
+        }
+        return player;
+    }
+
+    /**
+     * A player that times the moves of another player.
+     */
+    private static class TimedPlayer implements Player {
+        private final Player player;
+        private final GameResult result;
+        private final boolean mrX;
+
+        TimedPlayer(Player player, GameResult result, boolean mrX) {
+            this.player = player;
+            this.result = result;
+            this.mrX = mrX;
+        }
+
+        @Override
+        public void notify(int location, List<Move> moves, Integer token, final Receiver receiver) {
+            final long start = System.nanoTime();
+            player.notify(location, moves, token, new Receiver() {
+                @Override
+                public void playMove(Move move, Integer token) {
+                    // The model plays the next turn from inside playMove, so the time is taken first.
+                    long elapsed = System.nanoTime() - start;
+                    if (mrX) {
+                        result.mrXNanos += elapsed;
+                        ++result.mrXMoves;
+                    } else {
+                        result.detectiveNanos += elapsed;
+                        ++result.detectiveMoves;
+                    }
+                    receiver.playMove(move, token);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the Elo difference that gives the stronger side a score.
+     *
+     * @param score the share of games won, strictly between 0 and 1.
+     * @return the Elo difference.
+     */
+    static double elo(double score) {
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    /**
+     * Returns the standard error of the Elo difference measured from a score,
+     * by the delta method.
+     *
+     * @param score the share of games won, strictly between 0 and 1.
+     * @param games the number of games played.
+     * @return the standard error, in Elo.
+     */
+    static double eloError(double score, int games) {
+        return 400 / Math.log(10) / Math.sqrt(games * score * (1 - score));
+    }
+
+    /**
+     * Prints the standings.
+     *
+     * @param standings the standings of the Mr X configurations.
+     * @param detectives the configuration of the detectives.
+     * @param out the stream to print to.
+     */
+    public static void report(Standing[] standings, String detectives, PrintStream out) {
+        for (Standing s : standings) {
+            double score = s.score();
+            out.printf("%s Mr X against %s detectives: %d of %d won (%.1f%%), Elo %+.0f +/- %.0f,"
+                       + " Mr X %.1f ms/move, detectives %.1f ms/move%s%n",
+                       s.mrX, detectives, s.wins, s.games, 100.0 * s.wins / Math.max(s.games, 1),
+                       elo(score), Z * eloError(score, Math.max(s.games, 1)),
+                       s.mrXNanos / 1e6 / Math.max(s.mrXMoves, 1),
+                       s.detectiveNanos / 1e6 / Math.max(s.detectiveMoves, 1),
+                       (s.errors > 0) ? ", " + s.errors + " games failed" : "");
+        }
+        Standing first = standings[0];
+        for (int i = 1; i < standings.length; ++i) {
+            Standing s = standings[i];
+            double difference = elo(s.score()) - elo(first.score());
+            double error = Math.hypot(eloError(s.score(), Math.max(s.games, 1)),
+                                      eloError(first.score(), Math.max(first.games, 1)));
+            out.printf("%s relative to %s: Elo %+.0f +/- %.0f%n", s.mrX, first.mrX, difference, Z * error);
+        }
+    }
+
+    /**
+     * Runs a tournament and prints the standings.
+     *
+     * @param args the number of games, threads, the milliseconds per move,
+     *             the detectives and the Mr X configurations, all optional.
+     */
+    public static void main(String[] args) throws IOException {
+        int games = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_GAMES;
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long moveTime = (args.length > 2) ? Long.parseLong(args[2]) : DEFAULT_MOVE_TIME;
+        String detectives = (args.length > 3) ? args[3] : RANDOM;
+        String[] mrXs = (args.length > 4) ? Arrays.copyOfRange(args, 4, args.length) : new String[] {MINIMAX};
+        if (!detectives.equals(RANDOM)) {
+            System.out.println("The AIPlayer only plays Mr X, so the detectives must be random.");
+            return;
+        }
+        for (String mrX : mrXs) {
+            if (!mrX.equals(MINIMAX) && !mrX.equals(MCTS) && !mrX.equals(RANDOM)) {
+                System.out.println("Unknown configuration " + mrX + ", expected minimax, mcts or random.");
+                return;
+            }
+        }
+        Tournament tournament = new Tournament("graph.txt", moveTime);
+        // Loaded once up front, so that the games do not race to generate them.
+        PrecomputedTables.getShared("graph.txt");
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        Standing[] standings;
+        try {
+            standings = tournament.run(games, threads, detectives, mrXs, out);
+        } finally {
+            System.setOut(out);
+        }
+        report(standings, detectives, out);
+    }
+}
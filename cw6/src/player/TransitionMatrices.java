@@ -0,0 +1,111 @@
+package player;
+
+import scotlandyard.*;
+import graph.*;
+
+/**
+ * The TransitionMatrices hold, for each ticket Mr X can use, the probability
+ * of him moving from one node to another, assuming he picks uniformly between
+ * the links he can take with the ticket. The matrices are sparse, so each is
+ * stored in CSR form: the entries of row n are the targets and probabilities
+ * at offsets[n]..offsets[n + 1]. The rows are indexed like the tickets of
+ * Simulator.ticketType, and a secret ticket can be used on every link.
+ * <p>
+ * Moving a probability distribution over Mr X's location on by a ticket is
+ * then a single sparse matrix-vector product over a double[], see propagate().
+ */
+public class TransitionMatrices {
+    public final static int NODES = PrecomputedTables.NODES;
+    /** The number of tickets that move Mr X by themselves. */
+    public final static int TICKETS = 4;
+
+    private final int[][] offsets;
+    private final int[][] targets;
+    private final double[][] probabilities;
+
+    /**
+     * Constructs the transition matrices of a map.
+     *
+     * @param graph the graph of the map.
+     */
+    public TransitionMatrices(Graph<Integer, Transport> graph) {
+        offsets = new int[TICKETS][NODES + 1];
+        targets = new int[TICKETS][];
+        probabilities = new double[TICKETS][];
+        int secret = MoveCodec.ticketIndex(Ticket.Secret);
+        // Every edge is used in both directions, by its own ticket and by a secret one.
+        for (Edge<Integer, Transport> e : graph.getEdges()) {
+            int ticket = MoveCodec.ticketIndex(Ticket.fromTransport(e.getData()));
+            ++offsets[ticket][e.getSource().getIndex() + 1];
+            ++offsets[ticket][e.getTarget().getIndex() + 1];
+            if (ticket != secret) {
+                ++offsets[secret][e.getSource().getIndex() + 1];
+                ++offsets[secret][e.getTarget().getIndex() + 1];
+            }
+        }
+        int[][] next = new int[TICKETS][];
+        for (int t = 0; t < TICKETS; ++t) {
+            for (int node = 0; node < NODES; ++node) {
+                offsets[t][node + 1] += offsets[t][node];
+            }
+            targets[t] = new int[offsets[t][NODES]];
+            probabilities[t] = new double[offsets[t][NODES]];
+            next[t] = new int[NODES];
+            System.arraycopy(offsets[t], 0, next[t], 0, NODES);
+        }
+        for (Edge<Integer, Transport> e : graph.getEdges()) {
+            int ticket = MoveCodec.ticketIndex(Ticket.fromTransport(e.getData()));
+            int source = e.getSource().getIndex();
+            int target = e.getTarget().getIndex();
+            targets[ticket][next[ticket][source]++] = target;
+            targets[ticket][next[ticket][target]++] = source;
+            if (ticket != secret) {
+                targets[secret][next[secret][source]++] = target;
+                targets[secret][next[secret][target]++] = source;
+            }
+        }
+        for (int t = 0; t < TICKETS; ++t) {
+            for (int node = 0; node < NODES; ++node) {
+                int degree = offsets[t][node + 1] - offsets[t][node];
+                for (int i = offsets[t][node]; i < offsets[t][node + 1]; ++i) {
+                    probabilities[t][i] = 1.0 / degree;
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves a distribution over Mr X's location on by one ticket. Mr X cannot
+     * move onto a detective, so the probability of the links from a node that
+     * lead to occupied nodes is shared out between the others; if every link
+     * is blocked, that node's probability is lost.
+     *
+     * @param from the distribution before the move, indexed by node.
+     * @param ticket the index of the ticket used, as in Simulator.ticketType.
+     * @param occupied the nodes occupied by detectives.
+     * @param to the array the distribution after the move is written to.
+     */
+    public void propagate(double[] from, int ticket, boolean[] occupied, double[] to) {
+        int[] rows = offsets[ticket];
+        int[] columns = targets[ticket];
+        double[] values = probabilities[ticket];
+        for (int node = 0; node < NODES; ++node) {
+            to[node] = 0;
+        }
+        for (int node = 0; node < NODES; ++node) {
+            double weight = from[node];
+            if (weight == 0)
+                continue;
+            double free = 0;
+            for (int i = rows[node]; i < rows[node + 1]; ++i) {
+                if (!occupied[columns[i]]) free += values[i];
+            }
+            if (free == 0)
+                continue;
+            double scale = weight / free;
+            for (int i = rows[node]; i < rows[node + 1]; ++i) {
+                if (!occupied[columns[i]]) to[columns[i]] += scale * values[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package player;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size transposition table used by the Simulator to remember the
+ * positions it has already searched. Each slot stores the full hash of the
+ * position, its score, the depth it was searched to, the type of bound the
+ * score is and the best move found. A slot is overwritten when it is empty,
+ * was filled during an older search, or holds a shallower result.
+ * <p>
+ * The workers of a parallel search share one table without locking. A slot
+ * holds two words of data and a check word, the hash XORed with both, so
+ * that a slot torn by two threads storing into it at once no longer
+ * matches any hash and is taken to be empty.
+ */
+public class TranspositionTable {
+    /** The score is the exact result of a full search of the position. */
+    public final static int EXACT = 0;
+    /** The search was cut off; Mr X's part of the score is at least this good. */
+    public final static int LOWER = 1;
+    /** The search was cut off; the detectives' part of the score is at most this. */
+    public final static int UPPER = 2;
+
+    private final static int BOUND_SHIFT = 8;
+    private final static int GENERATION_SHIFT = 16;
+
+    // The check word of each slot, then its score and move, and its depth,
+    // bound and generation, the last two words next to each other in data.
+    private final long[] checks;
+    private final long[] data;
+    private final int mask;
+    private int generation;
+
+    /**
+     * Constructs a new TranspositionTable.
+     *
+     * @param bits the table holds 2^bits slots.
+     */
+    public TranspositionTable(int bits) {
+        int size = 1 << bits;
+        checks = new long[size];
+        data = new long[2 * size];
+        mask = size - 1;
+        generation = 1;
+    }
+
+    /**
+     * Starts a new search, so that entries from the previous searches are
+     * replaced first. No other thread may be searching with the table.
+     * <p>
+     * The generation is kept in 8 bits and 0 marks an empty slot, so after
+     * generation 255 it goes back to 1. An entry 255 searches old would then
+     * pass for one of the current search, so the table is cleared instead.
+     */
+    public void newSearch() {
+        if (++generation > 0xFF) {
+            clear();
+            generation = 1;
+        }
+    }
+
+    /**
+     * Empties the table. No other thread may be searching with the table.
+     */
+    public void clear() {
+        Arrays.fill(checks, 0);
+        Arrays.fill(data, 0);
+    }
+
+    /**
+     * Looks up a position in the table.
+     *
+     * @param key the hash of the position.
+     * @param entry the entry the slot holding the position is copied into.
+     * @return true if the position is in the table and false otherwise.
+     */
+    public boolean probe(long key, Entry entry) {
+        int slot = (int) key & mask;
+        long result = data[2 * slot];
+        long info = data[2 * slot + 1];
+        if ((info >>> GENERATION_SHIFT) == 0 || (checks[slot] ^ result ^ info) != key)
+            return false;
+        entry.score = (int) (result >> 32);
+        entry.move = (int) result;
+        entry.depth = (int) info & 0xFF;
+        entry.bound = (int) (info >>> BOUND_SHIFT) & 0xFF;
+        return true;
+    }
+
+    /**
+     * Stores the result of a search of a position.
+     *
+     * @param key the hash of the position.
+     * @param score the score of the position.
+     * @param depth the number of levels searched below the position.
+     * @param bound the type of bound the score is.
+     * @param move the best move found in the position.
+     */
+    public void store(long key, int score, int depth, int bound, int move) {
+        int slot = (int) key & mask;
+        long oldResult = data[2 * slot];
+        long oldInfo = data[2 * slot + 1];
+        if ((oldInfo >>> GENERATION_SHIFT) == generation && (checks[slot] ^ oldResult ^ oldInfo) != key
+            && ((int) oldInfo & 0xFF) > depth)
+            return;
+        long result = ((long) score << 32) | (move & 0xFFFFFFFFL);
+        long info = depth | (bound << BOUND_SHIFT) | ((long) generation << GENERATION_SHIFT);
+        data[2 * slot] = result;
+        data[2 * slot + 1] = info;
+        checks[slot] = key ^ result ^ info;
+    }
+
+    /**
+     * A copy of a slot of the table, taken by probe() so that other threads
+     * storing into the slot afterwards do not change it.
+     */
+    public static class Entry {
+        private int score;
+        private int move;
+        private int depth;
+        private int bound;
+
+        /**
+         * Returns the score of the position.
+         *
+         * @return the score.
+         */
+        public int getScore() {
+            return score;
+        }
+
+        /**
+         * Returns the best move found in the position.
+         *
+         * @return the best move.
+         */
+        public int getMove() {
+            return move;
+        }
+
+        /**
+         * Returns the number of levels searched below the position.
+         *
+         * @return the search depth.
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Returns the type of bound the score is.
+         *
+         * @return EXACT, LOWER or UPPER.
+         */
+        public int getBound() {
+            return bound;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package player;
+
+/**
+ * The latencies of the turns of an AIPlayer in one game. For each turn are
+ * counted:
+ * <pre>
+ *   total   from notify being called to the move being handed to the receiver
+ *   sync    bringing the simulator up to date with the moves played since
+ *           the last turn, with receiveMove and, in the first round,
+ *           setLocations
+ *   search  the opening book, endgame solver and search
+ *   decode  turning the move found into a Move for the receiver
+ * </pre>
+ * The moves of the other players are received between turns, so sync is
+ * not part of total; the rest of total is the time the turn waited in a
+ * MoveScheduler.
+ */
+public class TurnLatency {
+    private final LatencyHistogram total;
+    private final LatencyHistogram sync;
+    private final LatencyHistogram search;
+    private final LatencyHistogram decode;
+
+    /**
+     * Constructs a new TurnLatency with no turns counted.
+     */
+    public TurnLatency() {
+        this.total = new LatencyHistogram();
+        this.sync = new LatencyHistogram();
+        this.search = new LatencyHistogram();
+        this.decode = new LatencyHistogram();
+    }
+
+    /**
+     * Counts a turn.
+     *
+     * @param totalNanos the time from notify to the receiver.
+     * @param syncNanos the time spent syncing the simulator since the last turn.
+     * @param searchNanos the time spent finding the move.
+     * @param decodeNanos the time spent decoding the move.
+     */
+    public void record(long totalNanos, long syncNanos, long searchNanos, long decodeNanos) {
+        total.recordNanos(totalNanos);
+        sync.recordNanos(syncNanos);
+        search.recordNanos(searchNanos);
+        decode.recordNanos(decodeNanos);
+    }
+
+    /**
+     * Adds the turns of another TurnLatency to these.
+     *
+     * @param other the latencies to be added.
+     */
+    public void add(TurnLatency other) {
+        total.add(other.total);
+        sync.add(other.sync);
+        search.add(other.search);
+        decode.add(other.decode);
+    }
+
+    /**
+     * Returns the number of turns counted.
+     *
+     * @return the number of turns.
+     */
+    public long getTurns() {
+        return total.getCount();
+    }
+
+    /**
+     * Returns the histogram of the whole turns.
+     *
+     * @return the histogram of total.
+     */
+    public LatencyHistogram getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns a summary of each histogram on one line.
+     *
+     * @return the summary.
+     */
+    public String summary() {
+        return getTurns() + " turns; total " + total.summary()
+            + "; sync " + sync.summary()
+            + "; search " + search.summary()
+            + "; decode " + decode.summary();
+    }
+}
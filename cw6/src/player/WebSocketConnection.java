@@ -0,0 +1,294 @@
+package player;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Either end of a WebSocket (RFC 6455), which is how the browser client
+ * talks to the AI server. Only what that needs is implemented: text and
+ * binary messages, possibly fragmented, pings and closing. Messages may be
+ * sent from any thread, but only one thread may receive.
+ */
+class WebSocketConnection implements Closeable {
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    private final static String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private final static int TEXT = 0x1;
+    private final static int BINARY = 0x2;
+    private final static int CONTINUATION = 0x0;
+    private final static int CLOSE = 0x8;
+    private final static int PING = 0x9;
+    private final static int PONG = 0xA;
+
+    private final Socket socket;
+    private final boolean client;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final Random random;
+    private final AtomicLong bytesSent;
+    private final AtomicLong bytesReceived;
+
+    /**
+     * Opens a WebSocket to a server.
+     *
+     * @param host the host of the server.
+     * @param port the port of the server.
+     * @throws IOException if the connection or the handshake fails.
+     */
+    WebSocketConnection(String host, int port) throws IOException {
+        this(new Socket(host, port), true);
+        handshake(host, port);
+    }
+
+    private WebSocketConnection(Socket socket, boolean client) throws IOException {
+        this.socket = socket;
+        this.client = client;
+        this.socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.random = new Random();
+        this.bytesSent = new AtomicLong();
+        this.bytesReceived = new AtomicLong();
+    }
+
+    /**
+     * Takes the server end of a WebSocket on a connection accepted from a
+     * client, answering its handshake.
+     *
+     * @param socket the accepted connection.
+     * @return the WebSocket.
+     * @throws IOException if the connection fails or the client does not
+     *                     ask for a WebSocket.
+     */
+    static WebSocketConnection accept(Socket socket) throws IOException {
+        WebSocketConnection connection = new WebSocketConnection(socket, false);
+        try {
+            connection.answerHandshake();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Upgrades the connection to a WebSocket.
+     */
+    private void handshake(String host, int port) throws IOException {
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+        String key = Base64.getEncoder().encodeToString(nonce);
+        String request = "GET / HTTP/1.1\r\n"
+            + "Host: " + host + ":" + port + "\r\n"
+            + "Upgrade: websocket\r\n"
+            + "Connection: Upgrade\r\n"
+            + "Sec-WebSocket-Key: " + key + "\r\n"
+            + "Sec-WebSocket-Version: 13\r\n\r\n";
+        out.write(request.getBytes(UTF8));
+        out.flush();
+        String status = readLine();
+        if (!status.startsWith("HTTP/1.1 101"))
+            throw new IOException("WebSocket handshake refused: " + status);
+        String accept = null;
+        for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Accept"))
+                accept = line.substring(colon + 1).trim();
+        }
+        if (!expectedAccept(key).equals(accept))
+            throw new IOException("WebSocket handshake answered with a wrong key: " + accept);
+    }
+
+    /**
+     * Reads the handshake of a client and upgrades the connection.
+     */
+    private void answerHandshake() throws IOException {
+        String request = readLine();
+        String key = null;
+        for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key"))
+                key = line.substring(colon + 1).trim();
+        }
+        if (!request.startsWith("GET ") || key == null) {
+            out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n\r\n".getBytes(UTF8));
+            out.flush();
+            throw new IOException("Not a WebSocket handshake: " + request);
+        }
+        String response = "HTTP/1.1 101 Switching Protocols\r\n"
+            + "Upgrade: websocket\r\n"
+            + "Connection: Upgrade\r\n"
+            + "Sec-WebSocket-Accept: " + expectedAccept(key) + "\r\n\r\n";
+        out.write(response.getBytes(UTF8));
+        out.flush();
+    }
+
+    private static String expectedAccept(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(sha1.digest((key + ACCEPT_GUID).getBytes(UTF8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0)
+                throw new EOFException("Connection closed during the WebSocket handshake");
+            if (c != '\r')
+                line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Sends a text message.
+     *
+     * @param text the message.
+     * @throws IOException if the connection fails.
+     */
+    synchronized void send(String text) throws IOException {
+        sendFrame(TEXT, text.getBytes(UTF8));
+    }
+
+    /**
+     * Sends a binary message.
+     *
+     * @param bytes the message.
+     * @throws IOException if the connection fails.
+     */
+    synchronized void send(byte[] bytes) throws IOException {
+        sendFrame(BINARY, bytes);
+    }
+
+    /**
+     * Sends a frame, masked if this is the client end, as a client must.
+     */
+    private synchronized void sendFrame(int opcode, byte[] payload) throws IOException {
+        int maskBit = client ? 0x80 : 0;
+        out.write(0x80 | opcode);
+        if (payload.length < 126) {
+            out.write(maskBit | payload.length);
+            bytesSent.addAndGet(2 + payload.length);
+        } else if (payload.length < 65536) {
+            out.write(maskBit | 126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+            bytesSent.addAndGet(4 + payload.length);
+        } else {
+            out.write(maskBit | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) ((long) payload.length >>> shift));
+            }
+            bytesSent.addAndGet(10 + payload.length);
+        }
+        if (client) {
+            byte[] mask = new byte[4];
+            random.nextBytes(mask);
+            out.write(mask);
+            bytesSent.addAndGet(4);
+            byte[] masked = new byte[payload.length];
+            for (int i = 0; i < payload.length; ++i) {
+                masked[i] = (byte) (payload[i] ^ mask[i & 3]);
+            }
+            out.write(masked);
+        } else {
+            out.write(payload);
+        }
+        out.flush();
+    }
+
+    /**
+     * Waits for the next message, answering pings meanwhile.
+     *
+     * @return the message, a String if it is text or a byte[] if it is
+     *         binary, or null once the other end has closed the connection.
+     * @throws IOException if the connection fails.
+     */
+    Object receive() throws IOException {
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        boolean binary = false;
+        while (true) {
+            int first;
+            try {
+                first = in.readUnsignedByte();
+            } catch (EOFException e) {
+                return null;
+            }
+            boolean fin = (first & 0x80) != 0;
+            int opcode = first & 0x0F;
+            int second = in.readUnsignedByte();
+            long length = second & 0x7F;
+            if (length == 126) {
+                length = in.readUnsignedShort();
+            } else if (length == 127) {
+                length = in.readLong();
+            }
+            byte[] mask = null;
+            if ((second & 0x80) != 0) {
+                mask = new byte[4];
+                in.readFully(mask);
+            }
+            byte[] payload = new byte[(int) length];
+            in.readFully(payload);
+            bytesReceived.addAndGet(2 + ((mask != null) ? 4 : 0) + payload.length
+                                    + ((length >= 65536) ? 8 : (length >= 126) ? 2 : 0));
+            if (mask != null) {
+                for (int i = 0; i < payload.length; ++i) {
+                    payload[i] ^= mask[i & 3];
+                }
+            }
+            if (opcode == CLOSE) {
+                return null;
+            } else if (opcode == PING) {
+                sendFrame(PONG, payload);
+            } else if (opcode == TEXT || opcode == BINARY || opcode == CONTINUATION) {
+                if (opcode != CONTINUATION)
+                    binary = (opcode == BINARY);
+                message.write(payload);
+                if (fin)
+                    return binary ? message.toByteArray() : new String(message.toByteArray(), UTF8);
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes sent so far, counting the headers of the frames.
+     *
+     * @return the number of bytes sent.
+     */
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Returns the bytes received so far, counting the headers of the frames.
+     *
+     * @return the number of bytes received.
+     */
+    long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Closes the connection, telling the other end first.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            sendFrame(CLOSE, new byte[0]);
+        } catch (IOException e) {
+            // The other end may already have gone.
+        } finally {
+            socket.close();
+        }
+    }
+}
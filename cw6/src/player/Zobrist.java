@@ -0,0 +1,150 @@
+package player;
+
+import java.util.Random;
+
+/**
+ * Zobrist keys used to hash a position of the Simulator. Every (player,
+ * location), (player, ticket, count) and round gets its own random key, so
+ * the hash of a position can be updated incrementally by XOR-ing keys in and
+ * out as moves are played and reversed. The belief set changes as a whole on
+ * every move of Mr X, so it is mixed in word by word when a position is looked
+ * up instead, as is the hash of the probabilities Mr X's possible locations
+ * are weighted with.
+ * <p>
+ * For the symmetric hash, in which detectives holding the same tickets are
+ * interchangeable, every detective is keyed with the keys of the first
+ * detective and the result is scrambled by piece() before it is XOR-ed in.
+ * Swapping two such detectives then gives the same hash.
+ */
+public class Zobrist {
+    public final static int PLAYERS = 6;
+    public final static int TICKETS = 5;
+    public final static int MAX_TICKETS = 64;
+    public final static int MAX_ROUNDS = 32;
+    public final static int LOCATIONS = BeliefSet.CAPACITY;
+    /** The player index whose keys every detective uses in the symmetric hash. */
+    public final static int DETECTIVE = 1;
+
+    private final static long[] locationKeys = new long[PLAYERS * LOCATIONS];
+    private final static long[] ticketKeys = new long[PLAYERS * TICKETS * MAX_TICKETS];
+    private final static long[] roundKeys = new long[MAX_ROUNDS];
+    private final static long[] sideKeys = new long[PLAYERS];
+
+    static {
+        Random random = new Random(0x5C07L);
+        fill(locationKeys, random);
+        fill(ticketKeys, random);
+        fill(roundKeys, random);
+        fill(sideKeys, random);
+    }
+
+    private Zobrist() {
+    }
+
+    /**
+     * Fills an array with random keys.
+     *
+     * @param keys the array to be filled.
+     * @param random the random number generator.
+     */
+    private static void fill(long[] keys, Random random) {
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Returns the key of a player standing at a location.
+     *
+     * @param player the index of the player's colour.
+     * @param location the location of the player.
+     * @return the key of the player at the location.
+     */
+    public static long location(int player, int location) {
+        return locationKeys[player * LOCATIONS + location];
+    }
+
+    /**
+     * Returns the key of a player holding a number of tickets of a type.
+     *
+     * @param player the index of the player's colour.
+     * @param ticket the index of the ticket type.
+     * @param count the number of tickets held.
+     * @return the key of the ticket count.
+     */
+    public static long tickets(int player, int ticket, int count) {
+        return ticketKeys[(player * TICKETS + ticket) * MAX_TICKETS + (count & (MAX_TICKETS - 1))];
+    }
+
+    /**
+     * Returns the key of a round.
+     *
+     * @param round the round number.
+     * @return the key of the round.
+     */
+    public static long round(int round) {
+        return roundKeys[round & (MAX_ROUNDS - 1)];
+    }
+
+    /**
+     * Returns the key of the player to move.
+     *
+     * @param player the index of the player's colour.
+     * @return the key of the player to move.
+     */
+    public static long side(int player) {
+        return sideKeys[player];
+    }
+
+    /**
+     * Returns the key of a detective in the symmetric hash.
+     *
+     * @param hash the XOR of the DETECTIVE keys of the detective's location and ticket counts.
+     * @return the key of the detective, binding its location to its tickets.
+     */
+    public static long piece(long hash) {
+        return mix(hash);
+    }
+
+    /**
+     * Hashes the set of Mr X's possible locations.
+     *
+     * @param locations the set of Mr X's possible locations.
+     * @return the hash of the set.
+     */
+    public static long belief(BeliefSet locations) {
+        long hash = 0;
+        for (int i = 0; i < BeliefSet.WORDS; ++i) {
+            hash ^= mix(locations.words[i] + (i + 1) * 0x9E3779B97F4A7C15L);
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes a probability distribution over Mr X's location.
+     *
+     * @param weights the distribution, indexed by node.
+     * @return the hash of the distribution.
+     */
+    public static long weights(double[] weights) {
+        long hash = 0;
+        for (int i = 0; i < weights.length; ++i) {
+            if (weights[i] != 0) {
+                hash ^= mix(Double.doubleToLongBits(weights[i]) + (i + 1) * 0x9E3779B97F4A7C15L);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Scrambles the bits of a long, so that nearby inputs give unrelated outputs.
+     *
+     * @param z the value to be scrambled.
+     * @return the scrambled value.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}